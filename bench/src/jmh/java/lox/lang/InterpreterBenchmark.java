@@ -0,0 +1,53 @@
+package lox.lang;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Interpreter throughput on the workloads, run like jlox runs them: resolved, and optimized by all passes or by none,
+ * so the passes can be measured against the unoptimized tree. The same statements run in a new interpreter each
+ * time; the property caches start out empty every time, but functions compiled by an earlier run stay compiled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterpreterBenchmark {
+    @Param
+    public Workload workload;
+
+    @Param({"false", "true"})
+    public boolean optimized;
+
+    private List<Stmt> statements;
+
+    @Setup
+    public void setUp() {
+        statements = new Parser(new Scanner(workload.source())).parse();
+        new Resolver().resolve(statements);
+        if (optimized) {
+            statements = Optimizer.of(List.copyOf(Optimizer.PASSES.keySet())).optimize(statements);
+        }
+    }
+
+    @Benchmark
+    public Interpreter interpret() {
+        var interpreter = new Interpreter();
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+}
@@ -0,0 +1,41 @@
+package lox.lang;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Resolver throughput on the workloads, resolving the same statements again each time. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResolverBenchmark {
+    @Param
+    public Workload workload;
+
+    private List<Stmt> statements;
+
+    @Setup
+    public void setUp() {
+        statements = new Parser(new Scanner(workload.source())).parse();
+    }
+
+    @Benchmark
+    public List<Stmt> resolve() {
+        new Resolver().resolve(statements);
+        return statements;
+    }
+}
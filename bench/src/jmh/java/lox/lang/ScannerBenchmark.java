@@ -0,0 +1,51 @@
+package lox.lang;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Scanner throughput on the workloads. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScannerBenchmark {
+    @Param
+    public Workload workload;
+
+    private String source;
+
+    @Setup
+    public void setUp() {
+        source = workload.source();
+    }
+
+    /** Scans types only, releasing every token like the parser does, so no Token is built. */
+    @Benchmark
+    public int scan() {
+        var scanner = new Scanner(source);
+        int index = 0;
+        while (scanner.type(index) != TokenType.EOF) {
+            scanner.release(index++);
+        }
+        return index;
+    }
+
+    @Benchmark
+    public List<Token> scanTokens() {
+        return new Scanner(source).scanTokens();
+    }
+}
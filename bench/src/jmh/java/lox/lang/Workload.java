@@ -0,0 +1,82 @@
+package lox.lang;
+
+/** Lox programs for the benchmarks. They print nothing, so only the work itself is measured. */
+public enum Workload {
+    RECURSION(
+            "fun fib(n) {\n"
+            + "    if (n <= 1) return n;\n"
+            + "    return fib(n - 2) + fib(n - 1);\n"
+            + "}\n"
+            + "var result = fib(20);\n"),
+
+    CLOSURES(
+            "fun counter() {\n"
+            + "    var count = 0;\n"
+            + "    return fun () {\n"
+            + "        count = count + 1;\n"
+            + "        return count;\n"
+            + "    };\n"
+            + "}\n"
+            + "var total = 0;\n"
+            + "for (var i = 0; i < 200; i = i + 1) {\n"
+            + "    var next = counter();\n"
+            + "    for (var j = 0; j < 50; j = j + 1) {\n"
+            + "        total = total + next();\n"
+            + "    }\n"
+            + "}\n"),
+
+    CLASSES(
+            "class Vector(x, y) {\n"
+            + "    plus(other) {\n"
+            + "        return Vector(this.x + other.x, this.y + other.y);\n"
+            + "    }\n"
+            + "    dot(other) {\n"
+            + "        return this.x * other.x + this.y * other.y;\n"
+            + "    }\n"
+            + "}\n"
+            + "var sum = Vector(0, 0);\n"
+            + "var step = Vector(1, 2);\n"
+            + "var dots = 0;\n"
+            + "for (var i = 0; i < 10000; i = i + 1) {\n"
+            + "    sum = sum.plus(step);\n"
+            + "    dots = dots + sum.dot(step);\n"
+            + "}\n"),
+
+    STRINGS(
+            "var text = \"\";\n"
+            + "for (var i = 0; i < 5000; i = i + 1) {\n"
+            + "    text = text + \"line \" + i + \"\\n\";\n"
+            + "}\n"
+            + "var same = text == \"\" + text;\n"),
+
+    GENERATED(generated(10000));
+
+    private final String source;
+
+    Workload(String source) {
+        this.source = source;
+    }
+
+    String source() {
+        return source;
+    }
+
+    /** @return a script of the number of functions, each called once, mixing all kinds of tokens */
+    static String generated(int functions) {
+        var source = new StringBuilder("var total = 0;\n");
+        for (int i = 0; i < functions; i++) {
+            source.append("fun f").append(i).append("(alpha, beta) {\n")
+                    .append("    var sum = alpha + beta * 2.5;\n")
+                    .append("    if (sum > 10 and beta < 3) {\n")
+                    .append("        total = total + 1;\n")
+                    .append("    } else {\n")
+                    .append("        return \"small \\\"sum\\\"\";\n")
+                    .append("    }\n")
+                    .append("    while (false) sum = nil; // never\n")
+                    .append("    return sum;\n")
+                    .append("}\n")
+                    .append("f").append(i).append("(").append(i).append(", 1);\n");
+        }
+        return source.toString();
+    }
+}
@@ -0,0 +1,296 @@
+package lox.lang;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import lombok.AllArgsConstructor;
+
+/**
+ * Base for {@link Optimizer} passes that rewrite the AST. Each visit returns the node to use in place of the visited
+ * one, or null to drop a statement. By default children are rewritten and a node is only rebuilt when one of them
+ * changed, so untouched subtrees keep their identity.
+ * <p>
+ * While walking, the rewriter opens scopes the same way the {@link Resolver} does and records what was declared in
+ * each slot, so {@link #declarationOf} can map the depth and slot of a variable to its declaration.
+ */
+abstract class AstRewriter implements Optimizer.Pass, Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    // null for class scopes, whose variables methods cannot see at runtime
+    private final List<Scope> scopes = new ArrayList<>();
+
+    @Override
+    public List<Stmt> run(List<Stmt> statements) {
+        return rewrite(statements);
+    }
+
+    Expr rewrite(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    Stmt rewrite(Stmt stmt) {
+        return stmt == null ? null : stmt.accept(this);
+    }
+
+    List<Stmt> rewrite(List<Stmt> statements) {
+        return rewriteAll(statements, this::rewrite);
+    }
+
+    /** @return the list itself if no element changed */
+    static <T> List<T> rewriteAll(List<T> nodes, UnaryOperator<T> rewrite) {
+        List<T> result = null;
+        for (int i = 0; i < nodes.size(); i++) {
+            var node = nodes.get(i);
+            var rewritten = rewrite.apply(node);
+            if (rewritten != node && result == null) {
+                result = new ArrayList<>(nodes.subList(0, i));
+            }
+            if (result != null && rewritten != null) {
+                result.add(rewritten);
+            }
+        }
+        return result == null ? nodes : result;
+    }
+
+    int scopeCount() {
+        return scopes.size();
+    }
+
+    /**
+     * @return the {@link Stmt.Var}, {@link Stmt.Function} or {@link Stmt.Class} that declared the variable, or the
+     *         parameter's token; null for globals, {@code this} and variables of class scopes
+     */
+    Object declarationOf(int depth, int slot) {
+        if (depth < 0) {
+            return null;
+        }
+        var scope = scopes.get(scopes.size() - 1 - depth);
+        return scope == null ? null : scope.declarations[slot];
+    }
+
+    /** @return whether a variable at the depth is reached from inside a function nested in its declaring one */
+    boolean isCaptured(int depth) {
+        for (int i = scopes.size() - depth; i < scopes.size(); i++) {
+            var scope = scopes.get(i);
+            if (scope != null && scope.function) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void declare(int slot, Object declaration) {
+        if (slot >= 0 && !scopes.isEmpty() && scopes.get(scopes.size() - 1) != null) {
+            scopes.get(scopes.size() - 1).declarations[slot] = declaration;
+        }
+    }
+
+    private void beginFunctionScope(int frameSize, List<Token> params) {
+        var scope = new Scope(new Object[frameSize], true);
+        for (int i = 0; i < params.size(); i++) {
+            scope.declarations[i] = params.get(i);
+        }
+        scopes.add(scope);
+    }
+
+    private void endScope() {
+        scopes.remove(scopes.size() - 1);
+    }
+
+    /** Rewrites a statement that cannot be dropped, like the body of a loop. */
+    private Stmt rewriteBranch(Stmt stmt) {
+        var rewritten = rewrite(stmt);
+        return rewritten == null ? new Stmt.Block(List.of()) : rewritten;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        var value = rewrite(expr.getValue());
+        return value == expr.getValue() ? expr : new Expr.Assign(expr.getName(), value);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        var left = rewrite(expr.getLeft());
+        var right = rewrite(expr.getRight());
+        if (left == expr.getLeft() && right == expr.getRight()) {
+            return expr;
+        }
+        return new Expr.Binary(left, expr.getOperator(), right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        var callee = rewrite(expr.getCallee());
+        var arguments = rewriteAll(expr.getArguments(), this::rewrite);
+        if (callee == expr.getCallee() && arguments == expr.getArguments()) {
+            return expr;
+        }
+        return new Expr.Call(callee, expr.getParen(), arguments);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        var object = rewrite(expr.getObject());
+        return object == expr.getObject() ? expr : new Expr.Get(object, expr.getName());
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        var expression = rewrite(expr.getExpression());
+        return expression == expr.getExpression() ? expr : new Expr.Grouping(expression);
+    }
+
+    @Override
+    public Expr visitLambdaExpr(Expr.Lambda expr) {
+        beginFunctionScope(expr.getFrameSize(), expr.getParams());
+        var body = rewrite(expr.getBody());
+        endScope();
+        return body == expr.getBody() ? expr : new Expr.Lambda(expr.getKeyword(), expr.getParams(), body);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        var left = rewrite(expr.getLeft());
+        var right = rewrite(expr.getRight());
+        if (left == expr.getLeft() && right == expr.getRight()) {
+            return expr;
+        }
+        return new Expr.Logical(left, expr.getOperator(), right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        var object = rewrite(expr.getObject());
+        var value = rewrite(expr.getValue());
+        if (object == expr.getObject() && value == expr.getValue()) {
+            return expr;
+        }
+        return new Expr.Set(object, expr.getName(), value);
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitTernaryExpr(Expr.Ternary expr) {
+        var left = rewrite(expr.getLeft());
+        var middle = rewrite(expr.getMiddle());
+        var right = rewrite(expr.getRight());
+        if (left == expr.getLeft() && middle == expr.getMiddle() && right == expr.getRight()) {
+            return expr;
+        }
+        return new Expr.Ternary(left, expr.getLeftOp(), middle, expr.getRightOp(), right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        var right = rewrite(expr.getRight());
+        return right == expr.getRight() ? expr : new Expr.Unary(expr.getOperator(), right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        // the resolver opens no scope for blocks that declare nothing
+        var scoped = stmt.getFrameSize() > 0;
+        if (scoped) {
+            scopes.add(new Scope(new Object[stmt.getFrameSize()], false));
+        }
+        var statements = rewrite(stmt.getStatements());
+        if (scoped) {
+            endScope();
+        }
+        return statements == stmt.getStatements() ? stmt : new Stmt.Block(statements);
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        declare(stmt.getSlot(), stmt);
+        scopes.add(null);
+        var init = rewrite(stmt.getInit());
+        var methods = rewriteAll(stmt.getMethods(), this::rewriteFunction);
+        endScope();
+        if (init == stmt.getInit() && methods == stmt.getMethods()) {
+            return stmt;
+        }
+        return new Stmt.Class(stmt.getName(), stmt.getParams(), init, methods);
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        var expression = rewrite(stmt.getExpression());
+        return expression == stmt.getExpression() ? stmt : new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        declare(stmt.getSlot(), stmt);
+        return rewriteFunction(stmt);
+    }
+
+    /** Rewrites the body of a function or method; methods are not variables, so only functions are declared. */
+    Stmt.Function rewriteFunction(Stmt.Function stmt) {
+        beginFunctionScope(stmt.getFrameSize(), stmt.getParams());
+        var body = rewrite(stmt.getBody());
+        endScope();
+        return body == stmt.getBody() ? stmt : new Stmt.Function(stmt.getName(), stmt.getParams(), body);
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        var condition = rewrite(stmt.getCondition());
+        var thenBranch = rewriteBranch(stmt.getThenBranch());
+        var elseBranch = rewrite(stmt.getElseBranch());
+        if (condition == stmt.getCondition() && thenBranch == stmt.getThenBranch()
+                && elseBranch == stmt.getElseBranch()) {
+            return stmt;
+        }
+        return new Stmt.If(stmt.getKeyword(), condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        var expression = rewrite(stmt.getExpression());
+        return expression == stmt.getExpression() ? stmt : new Stmt.Print(stmt.getKeyword(), expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        var value = rewrite(stmt.getValue());
+        return value == stmt.getValue() ? stmt : new Stmt.Return(stmt.getKeyword(), value);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        var initializer = rewrite(stmt.getInitializer());
+        declare(stmt.getSlot(), stmt);
+        return initializer == stmt.getInitializer() ? stmt : new Stmt.Var(stmt.getName(), initializer);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        var condition = rewrite(stmt.getCondition());
+        var body = rewriteBranch(stmt.getBody());
+        if (condition == stmt.getCondition() && body == stmt.getBody()) {
+            return stmt;
+        }
+        return new Stmt.While(stmt.getKeyword(), condition, body);
+    }
+
+    @AllArgsConstructor
+    private static class Scope {
+        private final Object[] declarations;
+        private final boolean function;
+    }
+}
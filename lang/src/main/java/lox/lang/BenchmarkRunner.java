@@ -0,0 +1,237 @@
+package lox.lang;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import lombok.Value;
+import lox.vm.InterpretResult;
+import lox.vm.Vm;
+
+/**
+ * Runs the {@code .lox} programs of a directory as benchmarks, for {@code jlox bench}. Each run scans, parses,
+ * resolves, optimizes and executes a program from scratch in a new interpreter, the same way jlox runs a script;
+ * the warmup runs go first, then the measured ones, all in this JVM. What the programs print is discarded.
+ * <p>
+ * Results can be written as JSON and compared against such a file from an earlier run: a benchmark whose mean time
+ * grew by more than the threshold has regressed, and the exit code is 1.
+ */
+class BenchmarkRunner {
+    static final String USAGE = "Usage: jlox [--vm | --memoize] [--opt | --passes=<pass>,...] bench"
+            + " [--warmup=<runs>] [--iterations=<runs>] [--json=<file>] [--baseline=<file>] [--threshold=<percent>]"
+            + " <dir>";
+
+    // a benchmark as written by writeJson, one per line
+    private static final Pattern BASELINE_ENTRY = Pattern.compile(
+            "\\{\"name\": \"((?:[^\"\\\\]|\\\\.)*)\", \"mean\": ([-+.0-9eE]+)");
+
+    private final Lox.Flags flags;
+    private int warmup = 3;
+    private int iterations = 10;
+    private Path json = null;
+    private Path baseline = null;
+    private double threshold = 10;
+
+    private BenchmarkRunner(Lox.Flags flags) {
+        this.flags = flags;
+    }
+
+    /** @return the exit code for the arguments after {@code bench} */
+    static int run(List<String> arguments, Lox.Flags flags) throws IOException {
+        var runner = new BenchmarkRunner(flags);
+        Path directory = null;
+        try {
+            for (var argument : arguments) {
+                if (argument.startsWith("--warmup=")) {
+                    runner.warmup = Integer.parseInt(argument.substring("--warmup=".length()));
+                } else if (argument.startsWith("--iterations=")) {
+                    runner.iterations = Integer.parseInt(argument.substring("--iterations=".length()));
+                } else if (argument.startsWith("--json=")) {
+                    runner.json = Paths.get(argument.substring("--json=".length()));
+                } else if (argument.startsWith("--baseline=")) {
+                    runner.baseline = Paths.get(argument.substring("--baseline=".length()));
+                } else if (argument.startsWith("--threshold=")) {
+                    runner.threshold = Double.parseDouble(argument.substring("--threshold=".length()));
+                } else if (directory == null && !argument.startsWith("--")) {
+                    directory = Paths.get(argument);
+                } else {
+                    directory = null;
+                    break;
+                }
+            }
+        } catch (NumberFormatException e) {
+            directory = null;
+        }
+        if (directory == null || runner.warmup < 0 || runner.iterations < 1 || !Files.isDirectory(directory)) {
+            System.out.println(USAGE);
+            return 64;
+        }
+        return runner.runAll(directory);
+    }
+
+    private int runAll(Path directory) throws IOException {
+        List<Path> programs;
+        try (var files = Files.list(directory)) {
+            programs = files.filter(file -> file.getFileName().toString().endsWith(".lox"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        var baselineMeans = baseline != null ? readBaseline(baseline) : Map.<String, Double>of();
+
+        System.out.println(String.format("%-24s %10s %10s %10s %14s  %s",
+                "benchmark", "mean ms", "p50 ms", "p99 ms", "alloc/run", "vs baseline"));
+        var results = new ArrayList<Result>();
+        var exitCode = 0;
+        for (var program : programs) {
+            var name = program.getFileName().toString();
+            var result = measure(name, Files.readString(program));
+            if (result == null) {
+                System.out.println(String.format("%-24s failed", name));
+                exitCode = Lox.hadError ? 65 : 70;
+                continue;
+            }
+            results.add(result);
+
+            var comparison = "";
+            var baseMean = baselineMeans.get(name);
+            if (baseMean != null) {
+                var change = (result.mean - baseMean) / baseMean * 100;
+                comparison = String.format("%+.1f%%", change);
+                if (change > threshold) {
+                    comparison += " REGRESSED";
+                    exitCode = exitCode == 0 ? 1 : exitCode;
+                }
+            } else if (baseline != null) {
+                comparison = "new";
+            }
+            System.out.println(String.format("%-24s %10.3f %10.3f %10.3f %14d  %s",
+                    name, result.mean, result.p50, result.p99, result.allocated, comparison));
+        }
+
+        if (json != null) {
+            writeJson(json, results);
+        }
+        return exitCode;
+    }
+
+    /** @return the statistics of the measured runs, or null if the program has an error, which has been reported */
+    private Result measure(String name, String source) {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var times = new double[iterations];
+        long allocated = 0;
+
+        Lox.hadError = false;
+        Lox.hadRuntimeError = false;
+        var out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (int run = 0; run < warmup + iterations; run++) {
+                var allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+                var start = System.nanoTime();
+                if (!runOnce(source)) {
+                    return null;
+                }
+                var time = System.nanoTime() - start;
+                if (run >= warmup) {
+                    times[run - warmup] = time / 1e6;
+                    allocated += threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+                }
+            }
+        } finally {
+            System.setOut(out);
+        }
+
+        var mean = Arrays.stream(times).sum() / iterations;
+        Arrays.sort(times);
+        return new Result(name, mean, percentile(times, 50), percentile(times, 99), allocated / iterations);
+    }
+
+    /** @return whether the program ran without errors */
+    private boolean runOnce(String source) {
+        // later runs would otherwise find the names of earlier ones interned already
+        Symbol.reset();
+        var statements = new Parser(new Scanner(source)).parse();
+        if (Lox.hadError) {
+            return false;
+        }
+        new Resolver().resolve(statements);
+        if (Lox.hadError) {
+            return false;
+        }
+
+        if (!flags.getPasses().isEmpty()) {
+            statements = Optimizer.of(flags.getPasses()).optimize(statements);
+        }
+        if (flags.isMemoize()) {
+            for (var function : new PurityAnalyzer().analyze(statements)) {
+                function.setMemo(new Memo(function.getName().getLexeme()));
+            }
+        }
+
+        if (flags.isUseVm()) {
+            return new Vm().interpret(statements) == InterpretResult.OK;
+        }
+        new Interpreter().interpret(statements);
+        return !Lox.hadRuntimeError;
+    }
+
+    /** @return the nearest-rank percentile of sorted values */
+    private static double percentile(double[] sorted, int percent) {
+        var rank = (int) Math.ceil(percent / 100d * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    private void writeJson(Path file, List<Result> results) throws IOException {
+        var lines = new ArrayList<String>();
+        lines.add("{");
+        lines.add("  \"warmup\": " + warmup + ",");
+        lines.add("  \"iterations\": " + iterations + ",");
+        lines.add("  \"benchmarks\": [");
+        for (int i = 0; i < results.size(); i++) {
+            var result = results.get(i);
+            lines.add(String.format(Locale.ROOT,
+                    "    {\"name\": \"%s\", \"mean\": %.6f, \"p50\": %.6f, \"p99\": %.6f, \"allocated\": %d}%s",
+                    result.name.replace("\\", "\\\\").replace("\"", "\\\""),
+                    result.mean, result.p50, result.p99, result.allocated,
+                    i < results.size() - 1 ? "," : ""));
+        }
+        lines.add("  ]");
+        lines.add("}");
+        Files.write(file, lines);
+    }
+
+    /** @return the mean times by benchmark name in a file written by {@link #writeJson} */
+    private static Map<String, Double> readBaseline(Path file) throws IOException {
+        var means = new HashMap<String, Double>();
+        for (var line : Files.readAllLines(file)) {
+            var matcher = BASELINE_ENTRY.matcher(line);
+            if (matcher.find()) {
+                var name = matcher.group(1).replace("\\\"", "\"").replace("\\\\", "\\");
+                means.put(name, Double.parseDouble(matcher.group(2)));
+            }
+        }
+        return means;
+    }
+
+    /** Times in milliseconds and allocated bytes, per measured run. */
+    @Value
+    private static class Result {
+        String name;
+        double mean;
+        double p50;
+        double p99;
+        long allocated;
+    }
+}
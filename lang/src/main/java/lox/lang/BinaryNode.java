@@ -0,0 +1,184 @@
+package lox.lang;
+
+/**
+ * Implementation of a binary operator that specializes itself on the operand types it observes. An
+ * {@link Expr.Binary} starts without a node; its first evaluation installs one matching the operands, e.g. a
+ * double-only add. When a specialized node sees operands it does not handle, it rewrites the expression to the
+ * {@link #GENERIC} node for good, so a node changes at most twice.
+ */
+abstract class BinaryNode {
+
+    abstract Object execute(Expr.Binary expr, Object left, Object right);
+
+    static Object specializeAndExecute(Expr.Binary expr, Object left, Object right) {
+        var node = specialize(expr.getOperator().getType(), left, right);
+        expr.setSpecialization(node);
+        return node.execute(expr, left, right);
+    }
+
+    private static BinaryNode specialize(TokenType type, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            var node = doubles(type);
+            if (node != null) {
+                return node;
+            }
+        }
+        if (type == TokenType.PLUS && Rope.isString(left) && Rope.isString(right)) {
+            return STRING_ADD;
+        }
+        return GENERIC;
+    }
+
+    private static BinaryNode doubles(TokenType type) {
+        switch (type) {
+            case GREATER:
+                return DOUBLE_GREATER;
+            case GREATER_EQUAL:
+                return DOUBLE_GREATER_EQUAL;
+            case LESS:
+                return DOUBLE_LESS;
+            case LESS_EQUAL:
+                return DOUBLE_LESS_EQUAL;
+            case MINUS:
+                return DOUBLE_SUBTRACT;
+            case SLASH:
+                return DOUBLE_DIVIDE;
+            case STAR:
+                return DOUBLE_MULTIPLY;
+            case PLUS:
+                return DOUBLE_ADD;
+            default:
+                // equality has no type checks to remove
+                return null;
+        }
+    }
+
+    private static Object deoptimize(Expr.Binary expr, Object left, Object right) {
+        expr.setSpecialization(GENERIC);
+        return GENERIC.execute(expr, left, right);
+    }
+
+    private abstract static class DoubleNode extends BinaryNode {
+        abstract Object apply(double left, double right);
+
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return apply((double) left, (double) right);
+            }
+            return deoptimize(expr, left, right);
+        }
+    }
+
+    private static final BinaryNode DOUBLE_GREATER = new DoubleNode() {
+        @Override
+        Object apply(double left, double right) {
+            return left > right;
+        }
+    };
+
+    private static final BinaryNode DOUBLE_GREATER_EQUAL = new DoubleNode() {
+        @Override
+        Object apply(double left, double right) {
+            return left >= right;
+        }
+    };
+
+    private static final BinaryNode DOUBLE_LESS = new DoubleNode() {
+        @Override
+        Object apply(double left, double right) {
+            return left < right;
+        }
+    };
+
+    private static final BinaryNode DOUBLE_LESS_EQUAL = new DoubleNode() {
+        @Override
+        Object apply(double left, double right) {
+            return left <= right;
+        }
+    };
+
+    private static final BinaryNode DOUBLE_SUBTRACT = new DoubleNode() {
+        @Override
+        Object apply(double left, double right) {
+            return left - right;
+        }
+    };
+
+    private static final BinaryNode DOUBLE_DIVIDE = new DoubleNode() {
+        @Override
+        Object apply(double left, double right) {
+            return left / right;
+        }
+    };
+
+    private static final BinaryNode DOUBLE_MULTIPLY = new DoubleNode() {
+        @Override
+        Object apply(double left, double right) {
+            return left * right;
+        }
+    };
+
+    private static final BinaryNode DOUBLE_ADD = new DoubleNode() {
+        @Override
+        Object apply(double left, double right) {
+            return left + right;
+        }
+    };
+
+    private static final BinaryNode STRING_ADD = new BinaryNode() {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (Rope.isString(left) && Rope.isString(right)) {
+                return Rope.concat((CharSequence) left, (CharSequence) right, expr.getOperator());
+            }
+            return deoptimize(expr, left, right);
+        }
+    };
+
+    static final BinaryNode GENERIC = new BinaryNode() {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            var operator = expr.getOperator();
+            switch (operator.getType()) {
+                case GREATER:
+                    Interpreter.checkNumberOperands(operator, left, right);
+                    return (double) left > (double) right;
+                case GREATER_EQUAL:
+                    Interpreter.checkNumberOperands(operator, left, right);
+                    return (double) left >= (double) right;
+                case LESS:
+                    Interpreter.checkNumberOperands(operator, left, right);
+                    return (double) left < (double) right;
+                case LESS_EQUAL:
+                    Interpreter.checkNumberOperands(operator, left, right);
+                    return (double) left <= (double) right;
+                case BANG_EQUAL:
+                    return !Interpreter.isEqual(left, right);
+                case EQUAL_EQUAL:
+                    return Interpreter.isEqual(left, right);
+                case MINUS:
+                    Interpreter.checkNumberOperands(operator, left, right);
+                    return (double) left - (double) right;
+                case SLASH:
+                    Interpreter.checkNumberOperands(operator, left, right);
+                    return (double) left / (double) right;
+                case STAR:
+                    Interpreter.checkNumberOperands(operator, left, right);
+                    return (double) left * (double) right;
+                case PLUS:
+                    if (left instanceof Double && right instanceof Double) {
+                        return (double) left + (double) right;
+                    }
+
+                    if (Rope.isString(left) || Rope.isString(right)) {
+                        return Rope.join(left, right, operator);
+                    }
+
+                    throw new RuntimeError(operator, "No operation applicable for operands.");
+                default:
+                    throw new UnsupportedOperationException("unsupported operation: " + operator);
+            }
+        }
+    };
+}
@@ -1,9 +0,0 @@
-package lox.lang;
-
-import lombok.Value;
-
-@Value
-class CallResult {
-    boolean returning;
-    Object value;
-}
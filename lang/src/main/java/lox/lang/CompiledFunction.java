@@ -0,0 +1,9 @@
+package lox.lang;
+
+import java.util.List;
+
+/** Entry point of a function body compiled to JVM bytecode by the {@link JitCompiler}. */
+interface CompiledFunction {
+    /** @param receiver the instance bound to {@code this} for methods, null for plain functions */
+    Object call(Interpreter interpreter, Environment closure, LoxInstance receiver, List<Object> arguments);
+}
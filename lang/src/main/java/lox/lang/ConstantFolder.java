@@ -0,0 +1,101 @@
+package lox.lang;
+
+/**
+ * Evaluates operators whose operands are literals ahead of time, e.g. {@code 60 * 60} or {@code "a" + "b"}. Operations
+ * that would fail, like {@code 1 - "a"}, are left alone so that the error is still reported at runtime.
+ */
+class ConstantFolder extends AstRewriter {
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        var binary = (Expr.Binary) super.visitBinaryExpr(expr);
+        var left = binary.getLeft();
+        var right = binary.getRight();
+        if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+            try {
+                return literal(BinaryNode.GENERIC.execute(binary, value(left), value(right)));
+            } catch (RuntimeError e) {
+                return binary;
+            }
+        }
+
+        // (x + "a") + "b" is x + "ab" whatever x is, since x + "a" always concatenates
+        if (isStringConcat(binary) && left instanceof Expr.Binary && isStringConcat((Expr.Binary) left)) {
+            var inner = (Expr.Binary) left;
+            var suffix = (String) value(inner.getRight()) + value(right);
+            return new Expr.Binary(inner.getLeft(), inner.getOperator(), literal(suffix));
+        }
+        return binary;
+    }
+
+    private static boolean isStringConcat(Expr.Binary expr) {
+        return expr.getOperator().getType() == TokenType.PLUS
+                && expr.getRight() instanceof Expr.Literal
+                && value(expr.getRight()) instanceof String;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        var grouping = (Expr.Grouping) super.visitGroupingExpr(expr);
+        if (grouping.getExpression() instanceof Expr.Literal) {
+            return grouping.getExpression();
+        }
+        return grouping;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        var logical = (Expr.Logical) super.visitLogicalExpr(expr);
+        if (!(logical.getLeft() instanceof Expr.Literal)) {
+            return logical;
+        }
+
+        var leftIsTruthy = Interpreter.isTruthy(value(logical.getLeft()));
+        switch (logical.getOperator().getType()) {
+            case OR:
+                return leftIsTruthy ? logical.getLeft() : logical.getRight();
+            case AND:
+                return leftIsTruthy ? logical.getRight() : logical.getLeft();
+            default:
+                return logical;
+        }
+    }
+
+    @Override
+    public Expr visitTernaryExpr(Expr.Ternary expr) {
+        var ternary = (Expr.Ternary) super.visitTernaryExpr(expr);
+        if (ternary.getLeft() instanceof Expr.Literal
+                && ternary.getLeftOp().getType() == TokenType.QUESTION
+                && ternary.getRightOp().getType() == TokenType.COLON) {
+            return Interpreter.isTruthy(value(ternary.getLeft())) ? ternary.getMiddle() : ternary.getRight();
+        }
+        return ternary;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        var unary = (Expr.Unary) super.visitUnaryExpr(expr);
+        if (!(unary.getRight() instanceof Expr.Literal)) {
+            return unary;
+        }
+
+        var right = value(unary.getRight());
+        switch (unary.getOperator().getType()) {
+            case MINUS:
+                return right instanceof Double ? literal(-(double) right) : unary;
+            case BANG:
+                return literal(!Interpreter.isTruthy(right));
+            default:
+                return unary;
+        }
+    }
+
+    static Object value(Expr literal) {
+        return ((Expr.Literal) literal).getValue();
+    }
+
+    static Expr.Literal literal(Object value) {
+        // literals hold flat strings
+        return new Expr.Literal(value instanceof Rope ? value.toString() : value);
+    }
+}
@@ -0,0 +1,55 @@
+package lox.lang;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces reads of local variables that are initialized with a literal and never assigned afterwards by that
+ * literal, folding whatever becomes constant as a result. A first walk finds the assigned variables without changing
+ * anything, a second one rewrites.
+ */
+class ConstantPropagator extends ConstantFolder {
+    private final Set<Stmt.Var> assigned = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<Stmt.Var, Object> constants = new IdentityHashMap<>();
+
+    @Override
+    public List<Stmt> run(List<Stmt> statements) {
+        new AssignmentCollector().rewrite(statements);
+        return rewrite(statements);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        var declaration = declarationOf(expr.getDepth(), expr.getSlot());
+        if (constants.containsKey(declaration) && !assigned.contains(declaration)) {
+            return literal(constants.get(declaration));
+        }
+        return expr;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        var rewritten = (Stmt.Var) super.visitVarStmt(stmt);
+        if (stmt.getSlot() >= 0 && declarationOf(0, stmt.getSlot()) == stmt
+                && rewritten.getInitializer() instanceof Expr.Literal) {
+            constants.put(stmt, value(rewritten.getInitializer()));
+        }
+        return rewritten;
+    }
+
+    /** Only tracks scopes, so it leaves the tree as it is, and records the variables that are assigned. */
+    private class AssignmentCollector extends AstRewriter {
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr) {
+            var declaration = declarationOf(expr.getDepth(), expr.getSlot());
+            if (declaration instanceof Stmt.Var) {
+                assigned.add((Stmt.Var) declaration);
+            }
+            return super.visitAssignExpr(expr);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package lox.lang;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Removes code that can never run or has no effect: statements after one that always returns, the branch of an
+ * {@code if} whose condition is a literal, loops whose condition is a falsey literal, and literal expression
+ * statements. A removed statement that was the last of its list is replaced by {@code nil;}, so that the completion
+ * value a function implicitly returns stays the same.
+ */
+class DeadCodeEliminator extends AstRewriter {
+
+    @Override
+    List<Stmt> rewrite(List<Stmt> statements) {
+        var rewritten = super.rewrite(statements);
+        var end = rewritten.size();
+        for (int i = 0; i < rewritten.size(); i++) {
+            if (alwaysReturns(rewritten.get(i))) {
+                end = i + 1;
+                break;
+            }
+        }
+
+        List<Stmt> result = null;
+        for (int i = 0; i < end; i++) {
+            var statement = rewritten.get(i);
+            var removable = i < end - 1 && isLiteral(statement);
+            if (removable && result == null) {
+                result = new ArrayList<>(rewritten.subList(0, i));
+            }
+            if (result != null && !removable) {
+                result.add(statement);
+            }
+        }
+        if (result != null) {
+            return result;
+        }
+        return end == rewritten.size() ? rewritten : new ArrayList<>(rewritten.subList(0, end));
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        var rewritten = (Stmt.If) super.visitIfStmt(stmt);
+        if (!(rewritten.getCondition() instanceof Expr.Literal)) {
+            return rewritten;
+        }
+
+        if (Interpreter.isTruthy(((Expr.Literal) rewritten.getCondition()).getValue())) {
+            return rewritten.getThenBranch();
+        }
+        return rewritten.getElseBranch() != null ? rewritten.getElseBranch() : nil();
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        var rewritten = (Stmt.While) super.visitWhileStmt(stmt);
+        var condition = rewritten.getCondition();
+        if (condition instanceof Expr.Literal && !Interpreter.isTruthy(((Expr.Literal) condition).getValue())) {
+            return nil();
+        }
+        return rewritten;
+    }
+
+    private static boolean alwaysReturns(Stmt stmt) {
+        if (stmt instanceof Stmt.Return) {
+            return true;
+        }
+        if (stmt instanceof Stmt.Block) {
+            return ((Stmt.Block) stmt).getStatements().stream().anyMatch(DeadCodeEliminator::alwaysReturns);
+        }
+        if (stmt instanceof Stmt.If) {
+            var ifStmt = (Stmt.If) stmt;
+            return ifStmt.getElseBranch() != null
+                    && alwaysReturns(ifStmt.getThenBranch())
+                    && alwaysReturns(ifStmt.getElseBranch());
+        }
+        return false;
+    }
+
+    private static boolean isLiteral(Stmt stmt) {
+        return stmt instanceof Stmt.Expression && ((Stmt.Expression) stmt).getExpression() instanceof Expr.Literal;
+    }
+
+    private static Stmt nil() {
+        return new Stmt.Expression(new Expr.Literal(null));
+    }
+}
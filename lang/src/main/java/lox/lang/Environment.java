@@ -1,32 +1,24 @@
 package lox.lang;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import lombok.ToString;
 
+/**
+ * A fixed-size frame of local variables. Slots are assigned by the {@link Resolver}, so reads and writes are plain
+ * array accesses. Top-level variables live in {@link Globals} instead.
+ */
 @ToString
 class Environment {
 
-    private static final Object UNDEFINED = new Object();
-
     private final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    private final Object[] slots;
 
-    Environment() {
-        this.enclosing = null;
-    }
-
-    Environment(Environment enclosing) {
+    Environment(Environment enclosing, int size) {
         this.enclosing = enclosing;
+        this.slots = new Object[size];
     }
 
-    void declare(String name) {
-        define(name, UNDEFINED);
-    }
-
-    void define(String name, Object value) {
-        values.put(name, value);
+    void define(int slot, Object value) {
+        slots[slot] = value;
     }
 
     Environment ancestor(int distance) {
@@ -37,41 +29,11 @@ class Environment {
         return environment;
     }
 
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
-    }
-
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.getLexeme(), value);
-    }
-
-    Object get(Token name) {
-        if (values.containsKey(name.getLexeme())) {
-            var value = values.get(name.getLexeme());
-            if (value == UNDEFINED) {
-                throw new RuntimeError(name, "Undefined variable '" + name.getLexeme() + "'.");
-            }
-            return value;
-        }
-
-        if (enclosing != null) {
-            return enclosing.get(name);
-        }
-
-        throw new RuntimeError(name, "Undeclared variable '" + name.getLexeme() + "'.");
+    Object getAt(int distance, int slot) {
+        return ancestor(distance).slots[slot];
     }
 
-    void assign(Token name, Object value) {
-        if (values.containsKey(name.getLexeme())) {
-            values.put(name.getLexeme(), value);
-            return;
-        }
-
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
-        }
-
-        throw new RuntimeError(name, "Undeclared variable '" + name.getLexeme() + "'.");
+    void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).slots[slot] = value;
     }
 }
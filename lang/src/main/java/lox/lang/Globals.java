@@ -0,0 +1,50 @@
+package lox.lang;
+
+import java.util.Arrays;
+
+import lombok.ToString;
+
+/** Top-level variables, indexed by the id of their {@link Symbol}. */
+@ToString
+class Globals {
+
+    private static final Object UNDECLARED = new Object();
+    private static final Object UNDEFINED = new Object();
+
+    private Object[] values = new Object[0];
+
+    void declare(Symbol name) {
+        define(name, UNDEFINED);
+    }
+
+    void define(Symbol name, Object value) {
+        if (name.getId() >= values.length) {
+            var length = values.length;
+            values = Arrays.copyOf(values, Math.max(name.getId() + 1, Symbol.count()));
+            Arrays.fill(values, length, values.length, UNDECLARED);
+        }
+        values[name.getId()] = value;
+    }
+
+    Object get(Token name) {
+        var value = valueOf(name.getSymbol());
+        if (value == UNDECLARED) {
+            throw new RuntimeError(name, "Undeclared variable '" + name.getLexeme() + "'.");
+        }
+        if (value == UNDEFINED) {
+            throw new RuntimeError(name, "Undefined variable '" + name.getLexeme() + "'.");
+        }
+        return value;
+    }
+
+    void assign(Token name, Object value) {
+        if (valueOf(name.getSymbol()) == UNDECLARED) {
+            throw new RuntimeError(name, "Undeclared variable '" + name.getLexeme() + "'.");
+        }
+        values[name.getSymbol().getId()] = value;
+    }
+
+    private Object valueOf(Symbol name) {
+        return name.getId() < values.length ? values[name.getId()] : UNDECLARED;
+    }
+}
@@ -0,0 +1,124 @@
+package lox.lang;
+
+import java.io.PrintStream;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts how often each statement and call site runs, for {@code --heatmap}, and prints the counts by source line.
+ * The counts are taken from the statements the interpreter actually runs, after the {@link Optimizer}, so they show
+ * what the passes removed or hoisted. Compiling hot functions would bypass the counting, so the JIT is off while it
+ * is in use.
+ */
+class HeatMap {
+    private static final int BAR_WIDTH = 20;
+
+    private final Map<Object, long[]> counts = new IdentityHashMap<>();
+
+    void count(Stmt stmt) {
+        increment(stmt);
+    }
+
+    void count(Expr.Call call) {
+        increment(call);
+    }
+
+    private void increment(Object node) {
+        var count = counts.get(node);
+        if (count == null) {
+            count = new long[1];
+            counts.put(node, count);
+        }
+        count[0]++;
+    }
+
+    /** Prints every line of the source with the statements and calls run on it, and a bar for the busiest. */
+    void print(PrintStream out, String source) {
+        var statements = new TreeMap<Integer, Long>();
+        var calls = new TreeMap<Integer, Long>();
+        for (var entry : counts.entrySet()) {
+            var node = entry.getKey();
+            var line = node instanceof Expr.Call ? ((Expr.Call) node).getParen().getLine() : line((Stmt) node);
+            if (line > 0) {
+                (node instanceof Expr.Call ? calls : statements).merge(line, entry.getValue()[0], Long::sum);
+            }
+        }
+        long max = 1;
+        for (var count : statements.values()) {
+            max = Math.max(max, count);
+        }
+
+        var lines = source.split("\r?\n");
+        var format = "%6s %12s %12s  %-" + BAR_WIDTH + "s  %s";
+        out.println(String.format(format, "line", "statements", "calls", "", "source"));
+        for (int line = 1; line <= lines.length; line++) {
+            var executed = statements.getOrDefault(line, 0L);
+            var bar = "#".repeat((int) Math.ceil((double) BAR_WIDTH * executed / max));
+            out.println(String.format(format, line,
+                    executed == 0 ? "" : executed, calls.containsKey(line) ? calls.get(line) : "", bar,
+                    lines[line - 1]));
+        }
+    }
+
+    /** @return the line a statement starts on, or 0 if it has no tokens, like a block */
+    private static int line(Stmt stmt) {
+        Token token = null;
+        if (stmt instanceof Stmt.Class) {
+            token = ((Stmt.Class) stmt).getName();
+        } else if (stmt instanceof Stmt.Expression) {
+            token = firstToken(((Stmt.Expression) stmt).getExpression());
+        } else if (stmt instanceof Stmt.Function) {
+            token = ((Stmt.Function) stmt).getName();
+        } else if (stmt instanceof Stmt.If) {
+            token = ((Stmt.If) stmt).getKeyword();
+        } else if (stmt instanceof Stmt.Print) {
+            token = ((Stmt.Print) stmt).getKeyword();
+        } else if (stmt instanceof Stmt.Return) {
+            token = ((Stmt.Return) stmt).getKeyword();
+        } else if (stmt instanceof Stmt.Var) {
+            var var = (Stmt.Var) stmt;
+            token = var.getName();
+            // variables the optimizer introduced belong where their value was computed before
+            if (token.getLine() <= 0 && var.getInitializer() != null) {
+                token = firstToken(var.getInitializer());
+            }
+        } else if (stmt instanceof Stmt.While) {
+            token = ((Stmt.While) stmt).getKeyword();
+        }
+        return token != null ? token.getLine() : 0;
+    }
+
+    /** @return the leftmost token of an expression, or null if it is a literal */
+    private static Token firstToken(Expr expr) {
+        for (;;) {
+            if (expr instanceof Expr.Assign) {
+                return ((Expr.Assign) expr).getName();
+            } else if (expr instanceof Expr.Binary) {
+                expr = ((Expr.Binary) expr).getLeft();
+            } else if (expr instanceof Expr.Call) {
+                expr = ((Expr.Call) expr).getCallee();
+            } else if (expr instanceof Expr.Get) {
+                expr = ((Expr.Get) expr).getObject();
+            } else if (expr instanceof Expr.Grouping) {
+                expr = ((Expr.Grouping) expr).getExpression();
+            } else if (expr instanceof Expr.Lambda) {
+                return ((Expr.Lambda) expr).getKeyword();
+            } else if (expr instanceof Expr.Logical) {
+                expr = ((Expr.Logical) expr).getLeft();
+            } else if (expr instanceof Expr.Set) {
+                expr = ((Expr.Set) expr).getObject();
+            } else if (expr instanceof Expr.This) {
+                return ((Expr.This) expr).getKeyword();
+            } else if (expr instanceof Expr.Ternary) {
+                expr = ((Expr.Ternary) expr).getLeft();
+            } else if (expr instanceof Expr.Unary) {
+                return ((Expr.Unary) expr).getOperator();
+            } else if (expr instanceof Expr.Variable) {
+                return ((Expr.Variable) expr).getName();
+            } else {
+                return null;
+            }
+        }
+    }
+}
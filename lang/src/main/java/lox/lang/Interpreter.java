@@ -1,130 +1,257 @@
 package lox.lang;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import lombok.Getter;
+import lombok.Setter;
 
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<CallResult> {
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
+    private static final long NANO_ORIGIN = System.nanoTime();
+
+    @Getter
+    private final Globals globals = new Globals();
+
+    // samples the functions running, for --profile
     @Getter
-    private final Environment globals = new Environment();
+    @Setter
+    private Profiler profiler = null;
 
-    private Environment environment = globals;
+    // counts the statements and calls run, for --heatmap
+    @Setter
+    private HeatMap heatMap = null;
 
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    // whether hot functions are compiled; off while something needs every statement interpreted
+    @Getter
+    @Setter
+    private boolean jitEnabled = true;
+
+    // null unless metrics are enabled; volatile since JMX clients may enable them while a script runs
+    @Getter
+    private volatile InterpreterMetrics metrics = null;
+    // the counters of the thread running interpret, if they belong to the current metrics
+    private InterpreterMetrics.Stripe stripe = null;
+
+    // null at the top level, where declarations go to the globals
+    private Environment environment = null;
+
+    // set by a return statement; enclosing blocks and loops unwind until the function call clears it
+    private boolean returning = false;
+
+    // the property accesses that got a PropertyCache during this run
+    private final List<Expr> cached = new ArrayList<>();
 
     Interpreter() {
         // globals
-        this.globals.define("clock", new LoxCallable() {
+        this.globals.define(Symbol.intern("clock"), new LoxCallable() {
             @Override
             public int arity() { return 0; }
 
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments) {
+                return call0(interpreter);
+            }
+
+            @Override
+            public Object call0(Interpreter interpreter) {
+                interpreter.count(InterpreterMetrics.NATIVE_CALLS);
                 return System.currentTimeMillis() / 1000d;
             }
 
             @Override
             public String toString() { return "<native fn>"; }
         });
+        this.globals.define(Symbol.intern("nanoClock"), new LoxCallable() {
+            @Override
+            public int arity() { return 0; }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return call0(interpreter);
+            }
+
+            // nanoseconds since startup, which a double holds exactly for over a hundred days
+            @Override
+            public Object call0(Interpreter interpreter) {
+                interpreter.count(InterpreterMetrics.NATIVE_CALLS);
+                return (double) (System.nanoTime() - NANO_ORIGIN);
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+    }
+
+    /** Counts this interpreter's work in an {@link InterpreterMetrics} MBean from now on, and registers the MBean. */
+    public InterpreterMetrics enableMetrics() {
+        if (metrics == null) {
+            metrics = new InterpreterMetrics();
+            metrics.register();
+        }
+        return metrics;
+    }
+
+    /** Stops counting and unregisters the MBean. */
+    public void disableMetrics() {
+        if (metrics != null) {
+            metrics.unregister();
+            metrics = null;
+        }
     }
 
     public void interpret(List<Stmt> statements) {
+        // the thread may have changed since the last run
+        stripe = null;
+        var stripe = stripe();
+        var start = stripe != null ? System.nanoTime() : 0;
         try {
             for (var statement : statements) {
                 execute(statement);
             }
         } catch (RuntimeError error) {
+            returning = false;
+            count(InterpreterMetrics.RUNTIME_ERRORS);
             Lox.runtimeError(error);
+        } finally {
+            dropCaches();
+        }
+        if (stripe != null) {
+            stripe.add(InterpreterMetrics.EXECUTION_NANOS, System.nanoTime() - start);
         }
     }
 
+    /** Adds one to a counter of {@link InterpreterMetrics}, if it is enabled. */
+    void count(int counter) {
+        var stripe = stripe();
+        if (stripe != null) {
+            stripe.add(counter);
+        }
+    }
+
+    /** @return the counters of the running thread, or null unless metrics are enabled */
+    private InterpreterMetrics.Stripe stripe() {
+        var metrics = this.metrics;
+        if (metrics == null) {
+            return null;
+        }
+        if (stripe == null || stripe.getMetrics() != metrics) {
+            stripe = metrics.stripe();
+        }
+        return stripe;
+    }
+
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         var value = evaluate(expr.getValue());
-        environment.assign(expr.getName(), value);
+        if (expr.getDepth() >= 0) {
+            environment.assignAt(expr.getDepth(), expr.getSlot(), value);
+        } else {
+            globals.assign(expr.getName(), value);
+        }
         return value;
     }
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
-        var operator = expr.getOperator();
         var left = evaluate(expr.getLeft());
         var right = evaluate(expr.getRight());
 
-        switch (operator.getType()) {
-            case GREATER:
-                checkNumberOperands(expr.getOperator(), left, right);
-                return (double) left > (double) right;
-            case GREATER_EQUAL:
-                checkNumberOperands(expr.getOperator(), left, right);
-                return (double) left >= (double) right;
-            case LESS:
-                checkNumberOperands(expr.getOperator(), left, right);
-                return (double) left < (double) right;
-            case LESS_EQUAL:
-                checkNumberOperands(expr.getOperator(), left, right);
-                return (double) left <= (double) right;
-            case BANG_EQUAL:
-                return !isEqual(left, right);
-            case EQUAL_EQUAL:
-                return isEqual(left, right);
-            case MINUS:
-                checkNumberOperands(expr.getOperator(), left, right);
-                return (double) left - (double) right;
-            case SLASH:
-                checkNumberOperands(expr.getOperator(), left, right);
-                return (double) left / (double) right;
-            case STAR:
-                checkNumberOperands(expr.getOperator(), left, right);
-                return (double) left * (double) right;
-            case PLUS:
-                if (left instanceof Double && right instanceof Double) {
-                    return (double) left + (double) right;
-                }
-
-                if (left instanceof String || right instanceof String) {
-                    return stringify(left) + stringify(right);
-                }
-
-                throw new RuntimeError(expr.getOperator(), "No operation applicable for operands.");
-            default:
-                throw new UnsupportedOperationException("unsupported operation: " + operator);
+        var node = expr.getSpecialization();
+        if (node == null) {
+            return BinaryNode.specializeAndExecute(expr, left, right);
         }
+        return node.execute(expr, left, right);
     }
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        var callee = evaluate(expr.getCallee());
-        var arguments = new ArrayList<Object>();
-        for (var argument : expr.getArguments()) {
-            arguments.add(evaluate(argument));
+        if (heatMap != null) {
+            heatMap.count(expr);
+        }
+        // calls with up to three arguments pass them without a list, see LoxCallable
+        var arguments = expr.getArguments();
+        if (expr.getCallee() instanceof Expr.Get) {
+            // obj.method(...) passes obj straight to the method instead of binding it first
+            var get = (Expr.Get) expr.getCallee();
+            var object = evaluate(get.getObject());
+            var property = instance(object, get.getName()).getProperty(get.getName(), cache(get));
+            switch (arguments.size()) {
+                case 0:
+                    return invoke0(expr, object, property);
+                case 1:
+                    return invoke1(expr, object, property, evaluate(arguments.get(0)));
+                case 2:
+                    return invoke2(expr, object, property, evaluate(arguments.get(0)), evaluate(arguments.get(1)));
+                case 3:
+                    return invoke3(expr, object, property,
+                            evaluate(arguments.get(0)), evaluate(arguments.get(1)), evaluate(arguments.get(2)));
+                default:
+                    return invoke(object, property, evaluateArguments(expr), expr.getParen());
+            }
         }
 
-        if (!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expr.getParen(), "Not callable.");
+        var callee = evaluate(expr.getCallee());
+        switch (arguments.size()) {
+            case 0:
+                return call0(expr, callee);
+            case 1:
+                return call1(expr, callee, evaluate(arguments.get(0)));
+            case 2:
+                return call2(expr, callee, evaluate(arguments.get(0)), evaluate(arguments.get(1)));
+            case 3:
+                return call3(expr, callee,
+                        evaluate(arguments.get(0)), evaluate(arguments.get(1)), evaluate(arguments.get(2)));
+            default:
+                return call(callee, evaluateArguments(expr), expr.getParen());
         }
+    }
 
-        var function = (LoxCallable) callee;
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.getParen(),
-                    "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+    private TailCall tailCall(Expr.Call expr) {
+        if (heatMap != null) {
+            heatMap.count(expr);
+        }
+        if (expr.getCallee() instanceof Expr.Get) {
+            var get = (Expr.Get) expr.getCallee();
+            var object = evaluate(get.getObject());
+            var property = instance(object, get.getName()).getProperty(get.getName(), cache(get));
+            return new TailCall(object, property, evaluateArguments(expr), expr.getParen());
         }
 
-        return function.call(this, arguments);
+        var callee = evaluate(expr.getCallee());
+        return new TailCall(null, callee, evaluateArguments(expr), expr.getParen());
+    }
+
+    private List<Object> evaluateArguments(Expr.Call expr) {
+        var arguments = new ArrayList<Object>();
+        for (var argument : expr.getArguments()) {
+            arguments.add(evaluate(argument));
+        }
+        return arguments;
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
         var object = evaluate(expr.getObject());
+        return instance(object, expr.getName()).get(expr.getName(), cache(expr));
+    }
+
+    static LoxInstance instance(Object object, Token name) {
         if (object instanceof LoxInstance) {
-            return ((LoxInstance) object).get(expr.getName());
+            return (LoxInstance) object;
         }
 
-        throw new RuntimeError(expr.getName(), "Only instances have properties.");
+        throw new RuntimeError(name, "Only instances have properties.");
+    }
+
+    PropertyCache cache(Expr.Get expr) {
+        var cache = expr.getCache();
+        if (cache == null) {
+            cache = new PropertyCache();
+            expr.setCache(cache);
+            cached.add(expr);
+        }
+        return cache;
     }
 
     @Override
@@ -134,7 +261,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<CallResul
 
     @Override
     public Object visitLambdaExpr(Expr.Lambda expr) {
-        return new LoxLambda(expr.getParams(), expr.getBody(), environment);
+        return new LoxLambda(expr, environment);
     }
 
     @Override
@@ -172,7 +299,29 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<CallResul
         }
 
         var value = evaluate(expr.getValue());
-        return ((LoxInstance) object).set(expr.getName(), value);
+        return ((LoxInstance) object).set(expr.getName(), value, cache(expr));
+    }
+
+    private PropertyCache cache(Expr.Set expr) {
+        var cache = expr.getCache();
+        if (cache == null) {
+            cache = new PropertyCache();
+            expr.setCache(cache);
+            cached.add(expr);
+        }
+        return cache;
+    }
+
+    /** Detaches the property caches of this run from the AST, so they do not keep its classes and methods alive. */
+    private void dropCaches() {
+        for (var expr : cached) {
+            if (expr instanceof Expr.Get) {
+                ((Expr.Get) expr).setCache(null);
+            } else {
+                ((Expr.Set) expr).setCache(null);
+            }
+        }
+        cached.clear();
     }
 
     @Override
@@ -199,7 +348,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<CallResul
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.getKeyword(), expr);
+        return lookUpVariable(expr.getKeyword(), expr.getDepth(), expr.getSlot());
     }
 
     @Override
@@ -209,7 +358,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<CallResul
 
         switch (operator.getType()) {
             case MINUS:
-                checkNumberOperands(expr.getOperator(), right);
+                checkNumberOperand(expr.getOperator(), right);
                 return -(double) right;
             case BANG:
                 return !isTruthy(right);
@@ -220,126 +369,304 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<CallResul
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.getName(), expr);
+        return lookUpVariable(expr.getName(), expr.getDepth(), expr.getSlot());
     }
 
     @Override
-    public CallResult visitBlockStmt(Stmt.Block stmt) {
-        return executeBlock(stmt.getStatements(), new Environment(environment));
+    public Object visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.getFrameSize() == 0) {
+            // declares nothing, so it runs in the enclosing environment
+            return executeBlock(stmt.getStatements(), environment);
+        }
+        count(InterpreterMetrics.ENVIRONMENTS);
+        return executeBlock(stmt.getStatements(), new Environment(environment, stmt.getFrameSize()));
     }
 
     @Override
-    public CallResult visitClassStmt(Stmt.Class stmt) {
+    public Object visitClassStmt(Stmt.Class stmt) {
+        // the class has an environment for its methods
+        count(InterpreterMetrics.ENVIRONMENTS);
         var loxClass = new LoxClass(stmt, environment);
-        environment.define(stmt.getName().getLexeme(), loxClass);
+        define(stmt.getName(), stmt.getSlot(), loxClass);
         return null;
     }
 
     @Override
-    public CallResult visitExpressionStmt(Stmt.Expression stmt) {
-        var value = evaluate(stmt.getExpression());
-        return new CallResult(false, value);
+    public Object visitExpressionStmt(Stmt.Expression stmt) {
+        return evaluate(stmt.getExpression());
     }
 
     @Override
-    public CallResult visitFunctionStmt(Stmt.Function stmt) {
+    public Object visitFunctionStmt(Stmt.Function stmt) {
         var function = new LoxFunction(stmt, environment);
-        environment.define(stmt.getName().getLexeme(), function);
-        return new CallResult(false, function);
+        define(stmt.getName(), stmt.getSlot(), function);
+        return function;
     }
 
     @Override
-    public CallResult visitIfStmt(Stmt.If stmt) {
+    public Object visitIfStmt(Stmt.If stmt) {
         if (isTruthy(evaluate(stmt.getCondition()))) {
             return execute(stmt.getThenBranch());
         } else if (stmt.getElseBranch() != null) {
             return execute(stmt.getElseBranch());
         }
-        return new CallResult(false, null);
+        return null;
     }
 
     @Override
-    public CallResult visitPrintStmt(Stmt.Print stmt) {
+    public Object visitPrintStmt(Stmt.Print stmt) {
         var value = evaluate(stmt.getExpression());
         System.out.println(stringify(value));
-        return new CallResult(false, value);
+        return value;
     }
 
     @Override
-    public CallResult visitReturnStmt(Stmt.Return stmt) {
-        var value = stmt.getValue() == null ? null : evaluate(stmt.getValue());
-        return new CallResult(true, value);
+    public Object visitReturnStmt(Stmt.Return stmt) {
+        Object value;
+        if (stmt.getTailCall()) {
+            value = tailCall((Expr.Call) stmt.getValue());
+        } else {
+            value = stmt.getValue() == null ? null : evaluate(stmt.getValue());
+        }
+        returning = true;
+        return value;
     }
 
     @Override
-    public CallResult visitVarStmt(Stmt.Var stmt) {
+    public Object visitVarStmt(Stmt.Var stmt) {
         if (stmt.getInitializer() != null) {
             var value = evaluate(stmt.getInitializer());
-            environment.define(stmt.getName().getLexeme(), value);
-            return new CallResult(false, value);
+            define(stmt.getName(), stmt.getSlot(), value);
+            return value;
+        } else if (stmt.getSlot() < 0) {
+            globals.declare(stmt.getName().getSymbol());
         } else {
-            environment.declare(stmt.getName().getLexeme());
-            return new CallResult(false, null);
+            // locals without a value are nil, as in compiled functions and the VM
+            environment.define(stmt.getSlot(), null);
         }
+        return null;
     }
 
     @Override
-    public CallResult visitWhileStmt(Stmt.While stmt) {
-        var result = new CallResult(false, null);
-        while (isTruthy(evaluate(stmt.getCondition())) && !result.isReturning()) {
-            result = execute(stmt.getBody());
+    public Object visitWhileStmt(Stmt.While stmt) {
+        Object value = null;
+        while (isTruthy(evaluate(stmt.getCondition()))) {
+            value = execute(stmt.getBody());
+            if (returning) {
+                break;
+            }
         }
-        return result;
+        return value;
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        var distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.getLexeme());
+    private Object lookUpVariable(Token name, int depth, int slot) {
+        if (depth >= 0) {
+            return environment.getAt(depth, slot);
         } else {
             return globals.get(name);
         }
     }
 
-    private void checkNumberOperands(Token operator, Object... operands) {
-        for (var operand : operands) {
-            if (!(operand instanceof Double)) {
-                var operandClass = operand != null ? operand.getClass() : null;
-                throw new RuntimeError(operator, "Operands must be numbers, got " + operandClass);
-            }
+    private void define(Token name, int slot, Object value) {
+        if (slot < 0) {
+            globals.define(name.getSymbol(), value);
+        } else {
+            environment.define(slot, value);
         }
     }
 
+    Object call(Object callee, List<Object> arguments, Token paren) {
+        return runTailCalls(callOnce(callee, arguments, paren));
+    }
+
+    /** Calls a property fetched by {@link LoxInstance#getProperty}, handing methods the object as their receiver. */
+    Object invoke(Object object, Object property, List<Object> arguments, Token paren) {
+        return runTailCalls(invokeOnce(object, property, arguments, paren));
+    }
+
+    /** Makes the tail calls handed back by functions until one returns a value. */
+    Object runTailCalls(Object result) {
+        while (result instanceof TailCall) {
+            var tail = (TailCall) result;
+            result = tail.getObject() == null
+                    ? callOnce(tail.getCallee(), tail.getArguments(), tail.getParen())
+                    : invokeOnce(tail.getObject(), tail.getCallee(), tail.getArguments(), tail.getParen());
+        }
+        return result;
+    }
+
+    Object call0(Expr.Call expr, Object callee) {
+        return runTailCalls(callable(expr, callee).call0(this));
+    }
+
+    Object call1(Expr.Call expr, Object callee, Object a) {
+        return runTailCalls(callable(expr, callee).call1(this, a));
+    }
+
+    Object call2(Expr.Call expr, Object callee, Object a, Object b) {
+        return runTailCalls(callable(expr, callee).call2(this, a, b));
+    }
+
+    Object call3(Expr.Call expr, Object callee, Object a, Object b, Object c) {
+        return runTailCalls(callable(expr, callee).call3(this, a, b, c));
+    }
+
+    Object invoke0(Expr.Call expr, Object object, Object property) {
+        var function = callable(expr, property);
+        if (isUnboundMethod(function)) {
+            return runTailCalls(((LoxFunction) function).invoke0(this, (LoxInstance) object));
+        }
+        return runTailCalls(function.call0(this));
+    }
+
+    Object invoke1(Expr.Call expr, Object object, Object property, Object a) {
+        var function = callable(expr, property);
+        if (isUnboundMethod(function)) {
+            return runTailCalls(((LoxFunction) function).invoke1(this, (LoxInstance) object, a));
+        }
+        return runTailCalls(function.call1(this, a));
+    }
+
+    Object invoke2(Expr.Call expr, Object object, Object property, Object a, Object b) {
+        var function = callable(expr, property);
+        if (isUnboundMethod(function)) {
+            return runTailCalls(((LoxFunction) function).invoke2(this, (LoxInstance) object, a, b));
+        }
+        return runTailCalls(function.call2(this, a, b));
+    }
+
+    Object invoke3(Expr.Call expr, Object object, Object property, Object a, Object b, Object c) {
+        var function = callable(expr, property);
+        if (isUnboundMethod(function)) {
+            return runTailCalls(((LoxFunction) function).invoke3(this, (LoxInstance) object, a, b, c));
+        }
+        return runTailCalls(function.call3(this, a, b, c));
+    }
+
+    /** Checks that the callee can be called with the arguments of the call site. */
+    private static LoxCallable callable(Expr.Call expr, Object callee) {
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(expr.getParen(), "Not callable.");
+        }
+
+        var function = (LoxCallable) callee;
+        checkArity(function, expr.getArguments().size(), expr.getParen());
+        return function;
+    }
+
+    private static boolean isUnboundMethod(LoxCallable function) {
+        return function instanceof LoxFunction && ((LoxFunction) function).isUnboundMethod();
+    }
+
+    private Object callOnce(Object callee, List<Object> arguments, Token paren) {
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(paren, "Not callable.");
+        }
+
+        var function = (LoxCallable) callee;
+        checkArity(function, arguments.size(), paren);
+        return function.call(this, arguments);
+    }
+
+    private Object invokeOnce(Object object, Object property, List<Object> arguments, Token paren) {
+        if (property instanceof LoxFunction && ((LoxFunction) property).isUnboundMethod()) {
+            var method = (LoxFunction) property;
+            checkArity(method, arguments.size(), paren);
+            return method.invoke(this, (LoxInstance) object, arguments);
+        }
+
+        return callOnce(property, arguments, paren);
+    }
+
+    private static void checkArity(LoxCallable function, int arguments, Token paren) {
+        if (arguments != function.arity()) {
+            throw new RuntimeError(paren,
+                    "Expected " + function.arity() + " arguments but got " + arguments + ".");
+        }
+    }
+
+    static void checkNumberOperand(Token operator, Object operand) {
+        if (!(operand instanceof Double)) {
+            var operandClass = operand != null ? operand.getClass() : null;
+            throw new RuntimeError(operator, "Operands must be numbers, got " + operandClass);
+        }
+    }
+
+    static void checkNumberOperands(Token operator, Object left, Object right) {
+        checkNumberOperand(operator, left);
+        checkNumberOperand(operator, right);
+    }
+
     private Object evaluate(Expr expr) {
         return expr.accept(this);
     }
 
-    private CallResult execute(Stmt stmt) {
+    private Object execute(Stmt stmt) {
+        if (heatMap != null) {
+            heatMap.count(stmt);
+        }
+        count(InterpreterMetrics.STATEMENTS);
         return stmt.accept(this);
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
-    }
-
-    CallResult executeBlock(List<Stmt> statements, Environment environment) {
+    /** @return the value of the last statement executed, or the returned value */
+    Object executeBlock(List<Stmt> statements, Environment environment) {
         var previous = this.environment;
-        var result = new CallResult(false, null);
+        Object value = null;
         try {
             this.environment = environment;
             for (var statement : statements) {
-                result = execute(statement);
-                if (result.isReturning()) {
+                value = execute(statement);
+                if (returning) {
                     break;
                 }
             }
         } finally {
             this.environment = previous;
         }
-        return result;
+        return value;
+    }
+
+    /** Runs the body of a function, lambda or class declaration, which the profiler, if any, sees as a frame. */
+    Object executeBody(Object declaration, List<Stmt> body, Environment environment) {
+        countCall(declaration);
+        // the callee created the environment for the body
+        count(InterpreterMetrics.ENVIRONMENTS);
+        if (profiler != null) {
+            profiler.push(declaration);
+            try {
+                return executeBody(body, environment);
+            } finally {
+                profiler.pop();
+            }
+        }
+        return executeBody(body, environment);
+    }
+
+    /** Counts a call by the kind of declaration called; calls to classes create an instance. */
+    void countCall(Object declaration) {
+        var stripe = stripe();
+        if (stripe == null) {
+            return;
+        }
+        if (declaration instanceof Stmt.Function) {
+            stripe.add(InterpreterMetrics.FUNCTION_CALLS);
+        } else if (declaration instanceof Expr.Lambda) {
+            stripe.add(InterpreterMetrics.LAMBDA_CALLS);
+        } else {
+            stripe.add(InterpreterMetrics.CLASS_CALLS);
+            stripe.add(InterpreterMetrics.INSTANCES);
+        }
+    }
+
+    /** Runs a body, consuming its return. */
+    private Object executeBody(List<Stmt> body, Environment environment) {
+        var value = executeBlock(body, environment);
+        returning = false;
+        return value;
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null)
             return false;
         if (object instanceof Boolean)
@@ -347,15 +674,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<CallResul
         return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         if (a == null && b == null)
             return true;
         if (a == null)
             return false;
+        if (a instanceof Rope || b instanceof Rope)
+            return Rope.isString(a) && Rope.isString(b) && a.toString().equals(b.toString());
         return a.equals(b);
     }
 
-    private String stringify(Object obj) {
+    static String stringify(Object obj) {
         if (obj == null) {
             return "nil";
         }
@@ -0,0 +1,166 @@
+package lox.lang;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import lombok.Getter;
+
+/**
+ * Runtime counters of an {@link Interpreter}, registered as an MBean by {@link Interpreter#enableMetrics}. Every
+ * thread that runs the interpreter counts into its own {@link Stripe}, which only it writes, so counting is a plain
+ * increment without any contention; the attributes add up the stripes when they are read.
+ */
+public class InterpreterMetrics implements InterpreterMetricsMBean {
+    static final int STATEMENTS = 0;
+    static final int FUNCTION_CALLS = 1;
+    static final int LAMBDA_CALLS = 2;
+    static final int CLASS_CALLS = 3;
+    static final int NATIVE_CALLS = 4;
+    static final int ENVIRONMENTS = 5;
+    static final int INSTANCES = 6;
+    static final int RUNTIME_ERRORS = 7;
+    static final int EXECUTION_NANOS = 8;
+    private static final int COUNTERS = 9;
+
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    private final ObjectName name;
+    private final List<Stripe> stripes = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Stripe> stripe = ThreadLocal.withInitial(() -> {
+        var stripe = new Stripe(this);
+        stripes.add(stripe);
+        return stripe;
+    });
+
+    InterpreterMetrics() {
+        try {
+            name = new ObjectName("lox.lang:type=InterpreterMetrics,name=interpreter-" + instances.incrementAndGet());
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public ObjectName getName() {
+        return name;
+    }
+
+    void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void unregister() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** @return the stripe of the current thread */
+    Stripe stripe() {
+        return stripe.get();
+    }
+
+    private long sum(int counter) {
+        long sum = 0;
+        for (var stripe : stripes) {
+            sum += stripe.get(counter);
+        }
+        return sum;
+    }
+
+    @Override
+    public long getStatementsExecuted() {
+        return sum(STATEMENTS);
+    }
+
+    @Override
+    public long getFunctionCalls() {
+        return sum(FUNCTION_CALLS);
+    }
+
+    @Override
+    public long getLambdaCalls() {
+        return sum(LAMBDA_CALLS);
+    }
+
+    @Override
+    public long getClassCalls() {
+        return sum(CLASS_CALLS);
+    }
+
+    @Override
+    public long getNativeCalls() {
+        return sum(NATIVE_CALLS);
+    }
+
+    @Override
+    public long getEnvironmentsCreated() {
+        return sum(ENVIRONMENTS);
+    }
+
+    @Override
+    public long getInstancesCreated() {
+        return sum(INSTANCES);
+    }
+
+    @Override
+    public long getRuntimeErrors() {
+        return sum(RUNTIME_ERRORS);
+    }
+
+    @Override
+    public long getExecutionTimeNanos() {
+        return sum(EXECUTION_NANOS);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d statements, calls: %d function, %d lambda, %d class, %d native;"
+                + " %d environments, %d instances, %d runtime errors, %.3f ms",
+                getStatementsExecuted(), getFunctionCalls(), getLambdaCalls(), getClassCalls(), getNativeCalls(),
+                getEnvironmentsCreated(), getInstancesCreated(), getRuntimeErrors(), getExecutionTimeNanos() / 1e6);
+    }
+
+    /**
+     * The counters of one thread. Its writes and the readers' reads are opaque, which costs no more than plain
+     * accesses but keeps values from tearing and lets readers see them eventually.
+     */
+    static final class Stripe {
+        private static final VarHandle COUNTS = MethodHandles.arrayElementVarHandle(long[].class);
+        // counters start a cache line into the array, so stripes of different threads do not share one
+        private static final int PADDING = 8;
+
+        private final long[] counts = new long[PADDING + COUNTERS + PADDING];
+        @Getter
+        private final InterpreterMetrics metrics;
+
+        private Stripe(InterpreterMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        void add(int counter) {
+            add(counter, 1);
+        }
+
+        void add(int counter, long amount) {
+            var index = PADDING + counter;
+            COUNTS.setOpaque(counts, index, (long) COUNTS.getOpaque(counts, index) + amount);
+        }
+
+        private long get(int counter) {
+            return (long) COUNTS.getOpaque(counts, PADDING + counter);
+        }
+    }
+}
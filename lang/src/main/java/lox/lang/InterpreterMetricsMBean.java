@@ -0,0 +1,22 @@
+package lox.lang;
+
+/** The attributes of an {@link InterpreterMetrics}, as JMX shows them. */
+public interface InterpreterMetricsMBean {
+    long getStatementsExecuted();
+
+    long getFunctionCalls();
+
+    long getLambdaCalls();
+
+    long getClassCalls();
+
+    long getNativeCalls();
+
+    long getEnvironmentsCreated();
+
+    long getInstancesCreated();
+
+    long getRuntimeErrors();
+
+    long getExecutionTimeNanos();
+}
@@ -0,0 +1,380 @@
+package lox.lang;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of a class file writer for the {@link JitCompiler}. Classes are emitted as version 49 (Java 5) so that
+ * no stack map frames are needed; max stack is tracked as instructions are emitted.
+ */
+class JitClassWriter {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    // opcodes
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int ALOAD = 0x19;
+    static final int AALOAD = 0x32;
+    static final int ASTORE = 0x3a;
+    static final int AASTORE = 0x53;
+    static final int POP = 0x57;
+    static final int DUP = 0x59;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int GETFIELD = 0xb4;
+    static final int PUTFIELD = 0xb5;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int INVOKEINTERFACE = 0xb9;
+    static final int ANEWARRAY = 0xbd;
+    static final int CHECKCAST = 0xc0;
+
+    private final String name;
+    private final List<byte[]> pool = new ArrayList<>();
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<Code> methods = new ArrayList<>();
+    private final List<String> interfaces = new ArrayList<>();
+
+    JitClassWriter(String name) {
+        this.name = name;
+    }
+
+    void addInterface(String internalName) {
+        interfaces.add(internalName);
+    }
+
+    void addField(int access, String name, String descriptor) {
+        fields.add(bytes(out -> {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        }));
+    }
+
+    Code addMethod(int access, String name, String descriptor) {
+        var code = new Code(access, name, descriptor);
+        methods.add(code);
+        return code;
+    }
+
+    byte[] toByteArray() {
+        // resolve everything that goes into the constant pool before writing it
+        var thisClass = classRef(name);
+        var superClass = classRef("java/lang/Object");
+        var interfaceRefs = interfaces.stream().mapToInt(this::classRef).toArray();
+        var methodBytes = new ArrayList<byte[]>();
+        for (var method : methods) {
+            methodBytes.add(method.toByteArray());
+        }
+
+        return bytes(out -> {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(pool.size() + 1);
+            for (var entry : pool) {
+                out.write(entry);
+            }
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaceRefs.length);
+            for (var ref : interfaceRefs) {
+                out.writeShort(ref);
+            }
+            out.writeShort(fields.size());
+            for (var field : fields) {
+                out.write(field);
+            }
+            out.writeShort(methodBytes.size());
+            for (var method : methodBytes) {
+                out.write(method);
+            }
+            out.writeShort(0);
+        });
+    }
+
+    private int utf8(String value) {
+        return constant("U" + value, out -> {
+            out.writeByte(1);
+            out.writeUTF(value);
+        });
+    }
+
+    private int classRef(String internalName) {
+        var nameIndex = utf8(internalName);
+        return constant("C" + internalName, out -> {
+            out.writeByte(7);
+            out.writeShort(nameIndex);
+        });
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        var nameIndex = utf8(name);
+        var descriptorIndex = utf8(descriptor);
+        return constant("N" + name + ":" + descriptor, out -> {
+            out.writeByte(12);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        var classIndex = classRef(owner);
+        var nameAndTypeIndex = nameAndType(name, descriptor);
+        return constant(tag + owner + "." + name + ":" + descriptor, out -> {
+            out.writeByte(tag);
+            out.writeShort(classIndex);
+            out.writeShort(nameAndTypeIndex);
+        });
+    }
+
+    private int constant(String key, Emitter emitter) {
+        var index = poolIndex.get(key);
+        if (index != null) {
+            return index;
+        }
+        pool.add(bytes(emitter));
+        poolIndex.put(key, pool.size());
+        return pool.size();
+    }
+
+    private static byte[] bytes(Emitter emitter) {
+        var buffer = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(buffer)) {
+            emitter.emit(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    private interface Emitter {
+        void emit(DataOutputStream out) throws IOException;
+    }
+
+    static class Label {
+        private int position = -1;
+        private final List<Integer> references = new ArrayList<>();
+    }
+
+    /** Bytecode for one method. */
+    class Code {
+        private final int access;
+        private final String name;
+        private final String descriptor;
+
+        private byte[] code = new byte[256];
+        private int length = 0;
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+
+        private Code(int access, String name, String descriptor) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxLocals = 1 + argumentSlots(descriptor);
+        }
+
+        int getStack() {
+            return stack;
+        }
+
+        /** Resets the tracked stack depth, e.g. at a label only reached by a jump. */
+        void setStack(int stack) {
+            this.stack = stack;
+        }
+
+        void op(int opcode, int stackDelta) {
+            write(opcode);
+            adjust(stackDelta);
+        }
+
+        void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value, 1);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(BIPUSH, 1);
+                write(value);
+            } else {
+                op(SIPUSH, 1);
+                writeShort(value);
+            }
+        }
+
+        void aload(int local) {
+            localOp(ALOAD, local, 1);
+        }
+
+        void astore(int local) {
+            localOp(ASTORE, local, -1);
+        }
+
+        void field(int opcode, String owner, String name, String descriptor) {
+            var size = descriptor.equals("J") || descriptor.equals("D") ? 2 : 1;
+            int delta;
+            switch (opcode) {
+                case GETSTATIC:
+                    delta = size;
+                    break;
+                case GETFIELD:
+                    delta = size - 1;
+                    break;
+                case PUTFIELD:
+                    delta = -size - 1;
+                    break;
+                default:
+                    throw new IllegalArgumentException("not a field instruction: " + opcode);
+            }
+            op(opcode, delta);
+            writeShort(memberRef(9, owner, name, descriptor));
+        }
+
+        void invoke(int opcode, String owner, String name, String descriptor) {
+            var delta = returnSlots(descriptor) - argumentSlots(descriptor) - (opcode == INVOKESTATIC ? 0 : 1);
+            op(opcode, delta);
+            if (opcode == INVOKEINTERFACE) {
+                writeShort(memberRef(11, owner, name, descriptor));
+                write(argumentSlots(descriptor) + 1);
+                write(0);
+            } else {
+                writeShort(memberRef(10, owner, name, descriptor));
+            }
+        }
+
+        void type(int opcode, String internalName) {
+            op(opcode, 0);
+            writeShort(classRef(internalName));
+        }
+
+        void jump(int opcode, Label target) {
+            var start = length;
+            op(opcode, opcode == GOTO ? 0 : -1);
+            if (target.position >= 0) {
+                writeShort(offset(target.position - start));
+            } else {
+                target.references.add(start);
+                writeShort(0);
+            }
+        }
+
+        void mark(Label label) {
+            label.position = length;
+            for (var start : label.references) {
+                var offset = offset(length - start);
+                code[start + 1] = (byte) (offset >> 8);
+                code[start + 2] = (byte) offset;
+            }
+        }
+
+        void useLocals(int count) {
+            maxLocals = Math.max(maxLocals, count);
+        }
+
+        private int offset(int offset) {
+            if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                throw new JitCompiler.Unsupported("method too large");
+            }
+            return offset;
+        }
+
+        private void localOp(int opcode, int local, int delta) {
+            if (local > 0xff) {
+                throw new JitCompiler.Unsupported("too many locals");
+            }
+            op(opcode, delta);
+            write(local);
+            useLocals(local + 1);
+        }
+
+        private void adjust(int delta) {
+            stack += delta;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        private void write(int b) {
+            if (length == code.length) {
+                code = Arrays.copyOf(code, length * 2);
+            }
+            code[length++] = (byte) b;
+        }
+
+        private void writeShort(int value) {
+            write(value >> 8);
+            write(value);
+        }
+
+        private byte[] toByteArray() {
+            if (length > 0xffff) {
+                throw new JitCompiler.Unsupported("method too large");
+            }
+            var nameIndex = utf8(name);
+            var descriptorIndex = utf8(descriptor);
+            var codeIndex = utf8("Code");
+            return bytes(out -> {
+                out.writeShort(access);
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+                out.writeShort(1);
+                out.writeShort(codeIndex);
+                out.writeInt(12 + length);
+                out.writeShort(maxStack);
+                out.writeShort(maxLocals);
+                out.writeInt(length);
+                out.write(code, 0, length);
+                out.writeShort(0);
+                out.writeShort(0);
+            });
+        }
+    }
+
+    private static int argumentSlots(String descriptor) {
+        var slots = 0;
+        var i = 1;
+        while (descriptor.charAt(i) != ')') {
+            var c = descriptor.charAt(i);
+            if (c == 'J' || c == 'D') {
+                slots += 2;
+                i++;
+                continue;
+            }
+            while (c == '[') {
+                c = descriptor.charAt(++i);
+            }
+            if (c == 'L') {
+                i = descriptor.indexOf(';', i);
+            }
+            slots++;
+            i++;
+        }
+        return slots;
+    }
+
+    private static int returnSlots(String descriptor) {
+        var c = descriptor.charAt(descriptor.indexOf(')') + 1);
+        if (c == 'V') {
+            return 0;
+        }
+        return c == 'J' || c == 'D' ? 2 : 1;
+    }
+}
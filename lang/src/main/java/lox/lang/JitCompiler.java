@@ -0,0 +1,550 @@
+package lox.lang;
+
+import static lox.lang.JitClassWriter.*;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles the body of a hot {@link Stmt.Function} into a hidden JVM class so that HotSpot can optimize it like any
+ * other Java method. The function's own variables become JVM locals instead of {@link Environment} slots, which is
+ * only sound while nothing can capture them, so bodies containing lambdas, nested functions or classes are left to the
+ * {@link Interpreter}. Everything else is delegated to the helpers in {@link JitRuntime}.
+ */
+class JitCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    /** Calls before a function is compiled; 0 disables compilation. */
+    static final int THRESHOLD = Integer.getInteger("lox.jit.threshold", 1000);
+
+    private static final String RUNTIME = "lox/lang/JitRuntime";
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String TOKEN = "Llox/lang/Token;";
+    private static final String BINARY = "(" + OBJECT + OBJECT + TOKEN + ")" + OBJECT;
+
+    // JVM locals of the generated call method
+    private static final int THIS = 0;
+    private static final int INTERPRETER = 1;
+    private static final int CLOSURE = 2;
+    private static final int RECEIVER = 3;
+    private static final int ARGUMENTS = 4;
+    private static final int COMPLETION = 5;
+    private static final int FIRST_VARIABLE = 6;
+
+    private final String className;
+    private final JitClassWriter writer;
+    private final JitClassWriter.Code code;
+    private final List<Object> constants = new ArrayList<>();
+
+    // JVM local of slot 0 of each scope in the function, outermost first
+    private final List<Integer> scopes = new ArrayList<>();
+    private int nextLocal = FIRST_VARIABLE;
+
+    private JitCompiler(String className) {
+        this.className = className;
+        this.writer = new JitClassWriter(className);
+        this.writer.addInterface("lox/lang/CompiledFunction");
+        this.writer.addField(ACC_PRIVATE | ACC_FINAL, "constants", "[" + OBJECT);
+        this.code = writer.addMethod(ACC_PUBLIC, "call",
+                "(Llox/lang/Interpreter;Llox/lang/Environment;Llox/lang/LoxInstance;Ljava/util/List;)" + OBJECT);
+    }
+
+    /** @return the compiled body, or null if it uses something the compiler does not support */
+    static CompiledFunction compile(Stmt.Function declaration, boolean method) {
+        try {
+            var compiler = new JitCompiler("lox/lang/Jit$" + declaration.getName().getLexeme());
+            compiler.function(declaration, method);
+            return compiler.define();
+        } catch (Unsupported e) {
+            return null;
+        }
+    }
+
+    private void function(Stmt.Function declaration, boolean method) {
+        code.op(ACONST_NULL, 1);
+        code.astore(COMPLETION);
+        // InterpreterMetrics count the frame the interpreter would have created
+        count(InterpreterMetrics.ENVIRONMENTS);
+        beginScope(declaration.getFrameSize());
+        for (int i = 0; i < declaration.getParams().size(); i++) {
+            code.aload(ARGUMENTS);
+            code.pushInt(i);
+            code.invoke(INVOKEINTERFACE, "java/util/List", "get", "(I)" + OBJECT);
+            code.astore(scopes.get(0) + i);
+        }
+        if (method) {
+            // the resolver puts `this` right after the parameters
+            code.aload(RECEIVER);
+            code.astore(scopes.get(0) + declaration.getParams().size());
+        }
+        for (var statement : declaration.getBody()) {
+            compile(statement);
+        }
+        code.aload(COMPLETION);
+        code.op(ARETURN, -1);
+    }
+
+    private CompiledFunction define() {
+        var init = writer.addMethod(ACC_PUBLIC, "<init>", "([" + OBJECT + ")V");
+        init.aload(0);
+        init.invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        init.aload(0);
+        init.aload(1);
+        init.field(PUTFIELD, className, "constants", "[" + OBJECT);
+        init.op(RETURN, 0);
+
+        try {
+            var lookup = MethodHandles.lookup().defineHiddenClass(writer.toByteArray(), true);
+            var constructor = lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class, Object[].class));
+            return (CompiledFunction) constructor.invoke(constants.toArray());
+        } catch (Unsupported e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new Unsupported("class definition failed: " + e);
+        }
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.getValue());
+        if (expr.getDepth() < 0) {
+            code.aload(INTERPRETER);
+            constant(expr.getName());
+            code.invoke(INVOKESTATIC, RUNTIME, "assignGlobal",
+                    "(" + OBJECT + "Llox/lang/Interpreter;" + TOKEN + ")" + OBJECT);
+        } else if (expr.getDepth() < scopes.size()) {
+            code.op(DUP, 1);
+            code.astore(jvmLocal(expr.getDepth(), expr.getSlot()));
+        } else {
+            code.aload(CLOSURE);
+            code.pushInt(expr.getDepth() - scopes.size());
+            code.pushInt(expr.getSlot());
+            code.invoke(INVOKESTATIC, RUNTIME, "assignAt", "(" + OBJECT + "Llox/lang/Environment;II)" + OBJECT);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.getLeft());
+        compile(expr.getRight());
+        var operator = expr.getOperator();
+        switch (operator.getType()) {
+            case GREATER:
+                binary("greater", operator);
+                break;
+            case GREATER_EQUAL:
+                binary("greaterEqual", operator);
+                break;
+            case LESS:
+                binary("less", operator);
+                break;
+            case LESS_EQUAL:
+                binary("lessEqual", operator);
+                break;
+            case BANG_EQUAL:
+                code.invoke(INVOKESTATIC, RUNTIME, "notEqual", "(" + OBJECT + OBJECT + ")" + OBJECT);
+                break;
+            case EQUAL_EQUAL:
+                code.invoke(INVOKESTATIC, RUNTIME, "equal", "(" + OBJECT + OBJECT + ")" + OBJECT);
+                break;
+            case MINUS:
+                binary("subtract", operator);
+                break;
+            case SLASH:
+                binary("divide", operator);
+                break;
+            case STAR:
+                binary("multiply", operator);
+                break;
+            case PLUS:
+                binary("add", operator);
+                break;
+            default:
+                throw new Unsupported("operator " + operator);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        call(expr, false);
+        return null;
+    }
+
+    /**
+     * With {@code tail} set, leaves a {@link TailCall} for the caller instead of making the call. Other calls with up to
+     * three arguments pass them on the operand stack, see {@link LoxCallable}.
+     */
+    private void call(Expr.Call expr, boolean tail) {
+        var count = expr.getArguments().size();
+        var direct = !tail && count <= 3;
+        if (expr.getCallee() instanceof Expr.Get) {
+            var callee = (Expr.Get) expr.getCallee();
+            compile(callee.getObject());
+            code.op(DUP, 1);
+            constant(callee);
+            code.type(CHECKCAST, "lox/lang/Expr$Get");
+            code.aload(INTERPRETER);
+            code.invoke(INVOKESTATIC, RUNTIME, "property",
+                    "(" + OBJECT + "Llox/lang/Expr$Get;Llox/lang/Interpreter;)" + OBJECT);
+            if (direct) {
+                directCall(expr, "invoke" + count, OBJECT + OBJECT);
+                return;
+            }
+            arguments(expr);
+            constant(expr.getParen());
+            if (tail) {
+                code.invoke(INVOKESTATIC, RUNTIME, "tailInvoke", "(" + OBJECT + OBJECT + "[" + OBJECT + TOKEN + ")" + OBJECT);
+            } else {
+                code.aload(INTERPRETER);
+                code.invoke(INVOKESTATIC, RUNTIME, "invoke",
+                        "(" + OBJECT + OBJECT + "[" + OBJECT + TOKEN + "Llox/lang/Interpreter;)" + OBJECT);
+            }
+            return;
+        }
+
+        compile(expr.getCallee());
+        if (direct) {
+            directCall(expr, "call" + count, OBJECT);
+            return;
+        }
+        arguments(expr);
+        constant(expr.getParen());
+        if (tail) {
+            code.invoke(INVOKESTATIC, RUNTIME, "tailCall", "(" + OBJECT + "[" + OBJECT + TOKEN + ")" + OBJECT);
+        } else {
+            code.aload(INTERPRETER);
+            code.invoke(INVOKESTATIC, RUNTIME, "call",
+                    "(" + OBJECT + "[" + OBJECT + TOKEN + "Llox/lang/Interpreter;)" + OBJECT);
+        }
+    }
+
+    /** Calls the runtime helper with the arguments, the call site and the interpreter after what is on the stack. */
+    private void directCall(Expr.Call expr, String helper, String stacked) {
+        for (var argument : expr.getArguments()) {
+            compile(argument);
+        }
+        constant(expr);
+        code.type(CHECKCAST, "lox/lang/Expr$Call");
+        code.aload(INTERPRETER);
+        var descriptor = "(" + stacked + OBJECT.repeat(expr.getArguments().size())
+                + "Llox/lang/Expr$Call;Llox/lang/Interpreter;)" + OBJECT;
+        code.invoke(INVOKESTATIC, RUNTIME, helper, descriptor);
+    }
+
+    private void arguments(Expr.Call expr) {
+        code.pushInt(expr.getArguments().size());
+        code.type(ANEWARRAY, "java/lang/Object");
+        for (int i = 0; i < expr.getArguments().size(); i++) {
+            code.op(DUP, 1);
+            code.pushInt(i);
+            compile(expr.getArguments().get(i));
+            code.op(AASTORE, -3);
+        }
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.getObject());
+        constant(expr);
+        code.type(CHECKCAST, "lox/lang/Expr$Get");
+        code.aload(INTERPRETER);
+        code.invoke(INVOKESTATIC, RUNTIME, "get", "(" + OBJECT + "Llox/lang/Expr$Get;Llox/lang/Interpreter;)" + OBJECT);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitLambdaExpr(Expr.Lambda expr) {
+        throw new Unsupported("lambda");
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        var value = expr.getValue();
+        if (value == null) {
+            code.op(ACONST_NULL, 1);
+        } else if (value instanceof Boolean) {
+            code.field(GETSTATIC, "java/lang/Boolean", (Boolean) value ? "TRUE" : "FALSE", "Ljava/lang/Boolean;");
+        } else {
+            constant(value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.getLeft());
+        var end = new Label();
+        code.op(DUP, 1);
+        truthy();
+        switch (expr.getOperator().getType()) {
+            case OR:
+                code.jump(IFNE, end);
+                break;
+            case AND:
+                code.jump(IFEQ, end);
+                break;
+            default:
+                throw new Unsupported("operator " + expr.getOperator());
+        }
+        code.op(POP, -1);
+        compile(expr.getRight());
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.getObject());
+        constant(expr.getName());
+        code.invoke(INVOKESTATIC, RUNTIME, "checkSettable", "(" + OBJECT + TOKEN + ")" + OBJECT);
+        compile(expr.getValue());
+        constant(expr.getName());
+        code.invoke(INVOKESTATIC, RUNTIME, "set", "(" + OBJECT + OBJECT + TOKEN + ")" + OBJECT);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        if (expr.getLeftOp().getType() != TokenType.QUESTION || expr.getRightOp().getType() != TokenType.COLON) {
+            throw new Unsupported("ternary " + expr.getLeftOp() + expr.getRightOp());
+        }
+        compile(expr.getLeft());
+        truthy();
+        var otherwise = new Label();
+        var end = new Label();
+        code.jump(IFEQ, otherwise);
+        var stack = code.getStack();
+        compile(expr.getMiddle());
+        code.jump(GOTO, end);
+        code.setStack(stack);
+        code.mark(otherwise);
+        compile(expr.getRight());
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        variable(expr.getKeyword(), expr.getDepth(), expr.getSlot());
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.getRight());
+        switch (expr.getOperator().getType()) {
+            case MINUS:
+                constant(expr.getOperator());
+                code.invoke(INVOKESTATIC, RUNTIME, "negate", "(" + OBJECT + TOKEN + ")" + OBJECT);
+                break;
+            case BANG:
+                code.invoke(INVOKESTATIC, RUNTIME, "not", "(" + OBJECT + ")" + OBJECT);
+                break;
+            default:
+                throw new Unsupported("operator " + expr.getOperator());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        variable(expr.getName(), expr.getDepth(), expr.getSlot());
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        // blocks that declare nothing have no scope of their own
+        var scoped = stmt.getFrameSize() > 0;
+        if (scoped) {
+            count(InterpreterMetrics.ENVIRONMENTS);
+            beginScope(stmt.getFrameSize());
+        }
+        for (var statement : stmt.getStatements()) {
+            compile(statement);
+        }
+        if (stmt.getStatements().isEmpty()) {
+            completeNil();
+        }
+        if (scoped) {
+            endScope(stmt.getFrameSize());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported("class declaration");
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.getExpression());
+        code.astore(COMPLETION);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new Unsupported("function declaration");
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.getCondition());
+        truthy();
+        var otherwise = new Label();
+        var end = new Label();
+        code.jump(IFEQ, otherwise);
+        compile(stmt.getThenBranch());
+        code.jump(GOTO, end);
+        code.mark(otherwise);
+        if (stmt.getElseBranch() != null) {
+            compile(stmt.getElseBranch());
+        } else {
+            completeNil();
+        }
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.getExpression());
+        code.op(DUP, 1);
+        code.astore(COMPLETION);
+        code.invoke(INVOKESTATIC, RUNTIME, "print", "(" + OBJECT + ")V");
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.getTailCall()) {
+            call((Expr.Call) stmt.getValue(), true);
+        } else if (stmt.getValue() != null) {
+            compile(stmt.getValue());
+        } else {
+            code.op(ACONST_NULL, 1);
+        }
+        code.op(ARETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.getInitializer() != null) {
+            compile(stmt.getInitializer());
+        } else {
+            code.op(ACONST_NULL, 1);
+        }
+        code.op(DUP, 1);
+        code.astore(COMPLETION);
+        code.astore(scopes.get(scopes.size() - 1) + stmt.getSlot());
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        completeNil();
+        var top = new Label();
+        var end = new Label();
+        code.mark(top);
+        compile(stmt.getCondition());
+        truthy();
+        code.jump(IFEQ, end);
+        compile(stmt.getBody());
+        code.jump(GOTO, top);
+        code.mark(end);
+        return null;
+    }
+
+    private void compile(Stmt stmt) {
+        count(InterpreterMetrics.STATEMENTS);
+        stmt.accept(this);
+    }
+
+    /** Adds one to a counter of the interpreter's {@link InterpreterMetrics}, like the interpreter itself does. */
+    private void count(int counter) {
+        code.aload(INTERPRETER);
+        code.pushInt(counter);
+        code.invoke(INVOKEVIRTUAL, "lox/lang/Interpreter", "count", "(I)V");
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void beginScope(int frameSize) {
+        scopes.add(nextLocal);
+        // every slot starts out null so the verifier sees the local as assigned on all paths
+        for (int i = 0; i < frameSize; i++) {
+            code.op(ACONST_NULL, 1);
+            code.astore(nextLocal + i);
+        }
+        nextLocal += frameSize;
+    }
+
+    private void endScope(int frameSize) {
+        scopes.remove(scopes.size() - 1);
+        nextLocal -= frameSize;
+    }
+
+    private void variable(Token name, int depth, int slot) {
+        if (depth < 0) {
+            code.aload(INTERPRETER);
+            constant(name);
+            code.invoke(INVOKESTATIC, RUNTIME, "getGlobal", "(Llox/lang/Interpreter;" + TOKEN + ")" + OBJECT);
+        } else if (depth < scopes.size()) {
+            code.aload(jvmLocal(depth, slot));
+        } else {
+            code.aload(CLOSURE);
+            code.pushInt(depth - scopes.size());
+            code.pushInt(slot);
+            code.invoke(INVOKEVIRTUAL, "lox/lang/Environment", "getAt", "(II)" + OBJECT);
+        }
+    }
+
+    private int jvmLocal(int depth, int slot) {
+        return scopes.get(scopes.size() - 1 - depth) + slot;
+    }
+
+    private void binary(String helper, Token operator) {
+        constant(operator);
+        code.invoke(INVOKESTATIC, RUNTIME, helper, BINARY);
+    }
+
+    private void truthy() {
+        code.invoke(INVOKESTATIC, RUNTIME, "isTruthy", "(" + OBJECT + ")Z");
+    }
+
+    private void completeNil() {
+        code.op(ACONST_NULL, 1);
+        code.astore(COMPLETION);
+    }
+
+    private void constant(Object value) {
+        var index = constants.size();
+        constants.add(value);
+        code.aload(THIS);
+        code.field(GETFIELD, className, "constants", "[" + OBJECT);
+        code.pushInt(index);
+        code.op(AALOAD, -1);
+        if (value instanceof Token) {
+            code.type(CHECKCAST, "lox/lang/Token");
+        }
+    }
+
+    static class Unsupported extends RuntimeException {
+        Unsupported(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
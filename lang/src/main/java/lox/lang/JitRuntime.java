@@ -0,0 +1,164 @@
+package lox.lang;
+
+import java.util.Arrays;
+
+/** Operations called from code generated by the {@link JitCompiler}; they mirror the {@link Interpreter} visitors. */
+final class JitRuntime {
+    private JitRuntime() {
+    }
+
+    static Object getGlobal(Interpreter interpreter, Token name) {
+        return interpreter.getGlobals().get(name);
+    }
+
+    static Object assignGlobal(Object value, Interpreter interpreter, Token name) {
+        interpreter.getGlobals().assign(name, value);
+        return value;
+    }
+
+    static Object assignAt(Object value, Environment environment, int distance, int slot) {
+        environment.assignAt(distance, slot, value);
+        return value;
+    }
+
+    static Object call(Object callee, Object[] arguments, Token paren, Interpreter interpreter) {
+        return interpreter.call(callee, Arrays.asList(arguments), paren);
+    }
+
+    static Object invoke(Object object, Object property, Object[] arguments, Token paren, Interpreter interpreter) {
+        return interpreter.invoke(object, property, Arrays.asList(arguments), paren);
+    }
+
+    static Object call0(Object callee, Expr.Call expr, Interpreter interpreter) {
+        return interpreter.call0(expr, callee);
+    }
+
+    static Object call1(Object callee, Object a, Expr.Call expr, Interpreter interpreter) {
+        return interpreter.call1(expr, callee, a);
+    }
+
+    static Object call2(Object callee, Object a, Object b, Expr.Call expr, Interpreter interpreter) {
+        return interpreter.call2(expr, callee, a, b);
+    }
+
+    static Object call3(Object callee, Object a, Object b, Object c, Expr.Call expr, Interpreter interpreter) {
+        return interpreter.call3(expr, callee, a, b, c);
+    }
+
+    static Object invoke0(Object object, Object property, Expr.Call expr, Interpreter interpreter) {
+        return interpreter.invoke0(expr, object, property);
+    }
+
+    static Object invoke1(Object object, Object property, Object a, Expr.Call expr, Interpreter interpreter) {
+        return interpreter.invoke1(expr, object, property, a);
+    }
+
+    static Object invoke2(Object object, Object property, Object a, Object b, Expr.Call expr,
+            Interpreter interpreter) {
+        return interpreter.invoke2(expr, object, property, a, b);
+    }
+
+    static Object invoke3(Object object, Object property, Object a, Object b, Object c, Expr.Call expr,
+            Interpreter interpreter) {
+        return interpreter.invoke3(expr, object, property, a, b, c);
+    }
+
+    static Object tailCall(Object callee, Object[] arguments, Token paren) {
+        return new TailCall(null, callee, Arrays.asList(arguments), paren);
+    }
+
+    static Object tailInvoke(Object object, Object property, Object[] arguments, Token paren) {
+        return new TailCall(object, property, Arrays.asList(arguments), paren);
+    }
+
+    static Object get(Object object, Expr.Get expr, Interpreter interpreter) {
+        return Interpreter.instance(object, expr.getName()).get(expr.getName(), interpreter.cache(expr));
+    }
+
+    static Object property(Object object, Expr.Get expr, Interpreter interpreter) {
+        return Interpreter.instance(object, expr.getName()).getProperty(expr.getName(), interpreter.cache(expr));
+    }
+
+    static Object checkSettable(Object object, Token name) {
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(name, "Only instances have fields.");
+        }
+        return object;
+    }
+
+    static Object set(Object object, Object value, Token name) {
+        return ((LoxInstance) object).set(name, value);
+    }
+
+    static void print(Object value) {
+        System.out.println(Interpreter.stringify(value));
+    }
+
+    static boolean isTruthy(Object value) {
+        return Interpreter.isTruthy(value);
+    }
+
+    static Object not(Object value) {
+        return !Interpreter.isTruthy(value);
+    }
+
+    static Object negate(Object right, Token operator) {
+        Interpreter.checkNumberOperand(operator, right);
+        return -(double) right;
+    }
+
+    static Object equal(Object left, Object right) {
+        return Interpreter.isEqual(left, right);
+    }
+
+    static Object notEqual(Object left, Object right) {
+        return !Interpreter.isEqual(left, right);
+    }
+
+    static Object greater(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double) left > (double) right;
+    }
+
+    static Object greaterEqual(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double) left >= (double) right;
+    }
+
+    static Object less(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double) left < (double) right;
+    }
+
+    static Object lessEqual(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double) left <= (double) right;
+    }
+
+    static Object subtract(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double) left - (double) right;
+    }
+
+    static Object divide(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double) left / (double) right;
+    }
+
+    static Object multiply(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double) left * (double) right;
+    }
+
+    static Object add(Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left + (double) right;
+        }
+
+        if (Rope.isString(left) || Rope.isString(right)) {
+            return Rope.join(left, right, operator);
+        }
+
+        throw new RuntimeError(operator, "No operation applicable for operands.");
+    }
+}
@@ -0,0 +1,311 @@
+package lox.lang;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Moves expressions whose value cannot change while a loop runs out of it, into variables declared in a block
+ * wrapped around the loop. An expression is hoisted to the outermost enclosing loop of the same function that it is
+ * invariant in: every variable it reads is a local declared outside that loop and assigned neither inside it nor by
+ * any closure.
+ * <p>
+ * Since the loop might not run at all, and an error must not move ahead of the statements that preceded it, only
+ * expressions that have no side effects and cannot fail are hoisted. Whether arithmetic can fail depends on the
+ * operand types, so locals that only ever hold numbers are inferred up front.
+ */
+class LoopInvariantHoister extends AstRewriter {
+    // filled by the first walk
+    private final Map<Expr.Variable, Object> variables = new IdentityHashMap<>();
+    private final Map<Stmt.While, Set<Object>> assignedIn = new IdentityHashMap<>();
+    private final Set<Object> assignedByClosures = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<Object, List<Expr>> definitions = new IdentityHashMap<>();
+    private final Set<Object> numbers = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final List<Stmt.While> enclosingLoops = new ArrayList<>();
+
+    // used by the second walk
+    private boolean rewriting = false;
+    private List<Loop> loops = new ArrayList<>();
+    private int hoisted = 0;
+
+    @Override
+    public List<Stmt> run(List<Stmt> statements) {
+        rewrite(statements);
+        inferNumbers();
+        rewriting = true;
+        return rewrite(statements);
+    }
+
+    @Override
+    Expr rewrite(Expr expr) {
+        if (rewriting && expr != null) {
+            var loop = loopInvariantIn(expr);
+            if (loop != null) {
+                return loop.hoist(expr);
+            }
+        }
+        return super.rewrite(expr);
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        var declaration = declarationOf(expr.getDepth(), expr.getSlot());
+        if (!rewriting && declaration != null) {
+            for (var loop : enclosingLoops) {
+                assignedIn.get(loop).add(declaration);
+            }
+            if (isCaptured(expr.getDepth())) {
+                assignedByClosures.add(declaration);
+            }
+            definitions.computeIfAbsent(declaration, d -> new ArrayList<>()).add(expr.getValue());
+        }
+        return super.visitAssignExpr(expr);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        if (!rewriting) {
+            variables.put(expr, declarationOf(expr.getDepth(), expr.getSlot()));
+        }
+        return expr;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        var rewritten = super.visitVarStmt(stmt);
+        if (!rewriting && stmt.getInitializer() != null) {
+            numbers.add(stmt);
+            definitions.computeIfAbsent(stmt, d -> new ArrayList<>()).add(stmt.getInitializer());
+        }
+        return rewritten;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        if (!rewriting) {
+            assignedIn.put(stmt, Collections.newSetFromMap(new IdentityHashMap<>()));
+            enclosingLoops.add(stmt);
+            var rewritten = super.visitWhileStmt(stmt);
+            enclosingLoops.remove(enclosingLoops.size() - 1);
+            return rewritten;
+        }
+
+        var loop = new Loop(stmt, scopeCount());
+        loops.add(loop);
+        var rewritten = super.visitWhileStmt(stmt);
+        loops.remove(loops.size() - 1);
+        if (loop.declarations.isEmpty()) {
+            return rewritten;
+        }
+
+        var statements = new ArrayList<Stmt>(loop.declarations);
+        statements.add(rewritten);
+        return new Stmt.Block(statements);
+    }
+
+    @Override
+    public Expr visitLambdaExpr(Expr.Lambda expr) {
+        var enclosing = loops;
+        loops = new ArrayList<>();
+        var rewritten = super.visitLambdaExpr(expr);
+        loops = enclosing;
+        return rewritten;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        var enclosing = loops;
+        loops = new ArrayList<>();
+        var rewritten = super.visitClassStmt(stmt);
+        loops = enclosing;
+        return rewritten;
+    }
+
+    @Override
+    Stmt.Function rewriteFunction(Stmt.Function stmt) {
+        var enclosing = loops;
+        loops = new ArrayList<>();
+        var rewritten = super.rewriteFunction(stmt);
+        loops = enclosing;
+        return rewritten;
+    }
+
+    /** @return the outermost loop the expression is worth hoisting out of, or null */
+    private Loop loopInvariantIn(Expr expr) {
+        if (loops.isEmpty() || isTrivial(expr) || !isSafe(expr)) {
+            return null;
+        }
+
+        var read = new ArrayList<Expr.Variable>();
+        collectVariables(expr, read);
+        for (var loop : loops) {
+            if (read.stream().allMatch(variable -> isInvariant(variable, loop))) {
+                return loop;
+            }
+        }
+        return null;
+    }
+
+    private boolean isInvariant(Expr.Variable variable, Loop loop) {
+        var declaration = variables.get(variable);
+        var declaredIn = scopeCount() - 1 - variable.getDepth();
+        return declaration != null
+                && declaredIn < loop.scopes
+                && !assignedIn.get(loop.stmt).contains(declaration)
+                && !assignedByClosures.contains(declaration);
+    }
+
+    private static boolean isTrivial(Expr expr) {
+        if (expr instanceof Expr.Grouping) {
+            return isTrivial(((Expr.Grouping) expr).getExpression());
+        }
+        return expr instanceof Expr.Literal || expr instanceof Expr.Variable || expr instanceof Expr.This;
+    }
+
+    /** @return whether evaluating the expression has no side effects and cannot fail */
+    private boolean isSafe(Expr expr) {
+        if (expr instanceof Expr.Literal || expr instanceof Expr.This) {
+            return true;
+        }
+        if (expr instanceof Expr.Variable) {
+            // locals, but not globals, which might be undefined
+            return variables.get(expr) != null;
+        }
+        if (expr instanceof Expr.Grouping) {
+            return isSafe(((Expr.Grouping) expr).getExpression());
+        }
+        if (expr instanceof Expr.Unary) {
+            var unary = (Expr.Unary) expr;
+            var right = unary.getRight();
+            if (unary.getOperator().getType() == TokenType.MINUS) {
+                return isSafe(right) && isNumber(right);
+            }
+            return isSafe(right);
+        }
+        if (expr instanceof Expr.Binary) {
+            var binary = (Expr.Binary) expr;
+            var left = binary.getLeft();
+            var right = binary.getRight();
+            if (!isSafe(left) || !isSafe(right)) {
+                return false;
+            }
+            switch (binary.getOperator().getType()) {
+                case EQUAL_EQUAL:
+                case BANG_EQUAL:
+                    return true;
+                case PLUS:
+                    return isNumber(left) && isNumber(right) || isString(left) || isString(right);
+                default:
+                    return isNumber(left) && isNumber(right);
+            }
+        }
+        if (expr instanceof Expr.Logical) {
+            var logical = (Expr.Logical) expr;
+            return isSafe(logical.getLeft()) && isSafe(logical.getRight());
+        }
+        if (expr instanceof Expr.Ternary) {
+            var ternary = (Expr.Ternary) expr;
+            return isSafe(ternary.getLeft()) && isSafe(ternary.getMiddle()) && isSafe(ternary.getRight());
+        }
+        return false;
+    }
+
+    /** @return whether the expression yields a number whenever it does not fail */
+    private boolean isNumber(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            return ((Expr.Literal) expr).getValue() instanceof Double;
+        }
+        if (expr instanceof Expr.Variable) {
+            return numbers.contains(variables.get(expr));
+        }
+        if (expr instanceof Expr.Grouping) {
+            return isNumber(((Expr.Grouping) expr).getExpression());
+        }
+        if (expr instanceof Expr.Assign) {
+            return isNumber(((Expr.Assign) expr).getValue());
+        }
+        if (expr instanceof Expr.Unary) {
+            return ((Expr.Unary) expr).getOperator().getType() == TokenType.MINUS;
+        }
+        if (expr instanceof Expr.Binary) {
+            var binary = (Expr.Binary) expr;
+            switch (binary.getOperator().getType()) {
+                case MINUS:
+                case SLASH:
+                case STAR:
+                    return true;
+                case PLUS:
+                    return isNumber(binary.getLeft()) && isNumber(binary.getRight());
+                default:
+                    return false;
+            }
+        }
+        if (expr instanceof Expr.Logical) {
+            var logical = (Expr.Logical) expr;
+            return isNumber(logical.getLeft()) && isNumber(logical.getRight());
+        }
+        if (expr instanceof Expr.Ternary) {
+            var ternary = (Expr.Ternary) expr;
+            return isNumber(ternary.getMiddle()) && isNumber(ternary.getRight());
+        }
+        return false;
+    }
+
+    private static boolean isString(Expr expr) {
+        return expr instanceof Expr.Literal && ((Expr.Literal) expr).getValue() instanceof String;
+    }
+
+    /** Starts from every initialized local holding a number and drops those with a definition that might not. */
+    private void inferNumbers() {
+        boolean changed;
+        do {
+            changed = false;
+            for (var declaration : new ArrayList<>(numbers)) {
+                if (!definitions.get(declaration).stream().allMatch(this::isNumber)) {
+                    numbers.remove(declaration);
+                    changed = true;
+                }
+            }
+        } while (changed);
+    }
+
+    private static void collectVariables(Expr expr, List<Expr.Variable> variables) {
+        if (expr instanceof Expr.Variable) {
+            variables.add((Expr.Variable) expr);
+        } else if (expr instanceof Expr.Grouping) {
+            collectVariables(((Expr.Grouping) expr).getExpression(), variables);
+        } else if (expr instanceof Expr.Unary) {
+            collectVariables(((Expr.Unary) expr).getRight(), variables);
+        } else if (expr instanceof Expr.Binary) {
+            collectVariables(((Expr.Binary) expr).getLeft(), variables);
+            collectVariables(((Expr.Binary) expr).getRight(), variables);
+        } else if (expr instanceof Expr.Logical) {
+            collectVariables(((Expr.Logical) expr).getLeft(), variables);
+            collectVariables(((Expr.Logical) expr).getRight(), variables);
+        } else if (expr instanceof Expr.Ternary) {
+            collectVariables(((Expr.Ternary) expr).getLeft(), variables);
+            collectVariables(((Expr.Ternary) expr).getMiddle(), variables);
+            collectVariables(((Expr.Ternary) expr).getRight(), variables);
+        }
+    }
+
+    @RequiredArgsConstructor
+    private class Loop {
+        private final Stmt.While stmt;
+        // scopes open outside the loop
+        private final int scopes;
+        private final List<Stmt.Var> declarations = new ArrayList<>();
+
+        Expr hoist(Expr expr) {
+            // '$' cannot start an identifier in source, so the name is free
+            var name = new Token(TokenType.IDENTIFIER, "$invariant" + hoisted++, null, 0);
+            declarations.add(new Stmt.Var(name, expr));
+            return new Expr.Variable(name);
+        }
+    }
+}
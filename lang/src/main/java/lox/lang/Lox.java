@@ -3,38 +3,163 @@ package lox.lang;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
-import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 
 import lombok.Getter;
 import lombok.Setter;
+import lox.vm.InterpretResult;
+import lox.vm.Vm;
 
 public class Lox {
 
     public static void main(String[] args) throws IOException {
+        var flags = new Flags();
+        var arguments = new ArrayList<>(List.of(args));
+        if (arguments.remove("--vm")) {
+            flags.setUseVm(true);
+        }
+        if (arguments.remove("--memo-stats")) {
+            flags.setMemoize(true);
+            flags.setMemoStats(true);
+        }
+        if (arguments.remove("--memoize")) {
+            flags.setMemoize(true);
+        }
+        if (arguments.remove("--pipeline")) {
+            flags.setPipeline(true);
+        }
+        if (arguments.remove("--profile")) {
+            flags.setProfile(true);
+        }
+        var profile = arguments.stream().filter(arg -> arg.startsWith("--profile=")).findFirst();
+        if (profile.isPresent()) {
+            arguments.remove(profile.get());
+            flags.setProfile(true);
+            flags.setProfileOutput(profile.get().substring("--profile=".length()));
+        }
+        if (arguments.remove("--heatmap")) {
+            flags.setHeatMap(true);
+        }
+        var heatMap = arguments.stream().filter(arg -> arg.startsWith("--heatmap=")).findFirst();
+        if (heatMap.isPresent()) {
+            arguments.remove(heatMap.get());
+            flags.setHeatMap(true);
+            flags.setHeatMapOutput(heatMap.get().substring("--heatmap=".length()));
+        }
+        if (arguments.remove("--metrics")) {
+            flags.setMetrics(true);
+        }
+        if (arguments.remove("--opt")) {
+            flags.setPasses(List.copyOf(Optimizer.PASSES.keySet()));
+        }
+        // the default, still accepted for scripts that ask for it explicitly
+        if (arguments.remove("--no-opt")) {
+            flags.setPasses(List.of());
+        }
+        var passes = arguments.stream().filter(arg -> arg.startsWith("--passes=")).findFirst();
+        if (passes.isPresent()) {
+            arguments.remove(passes.get());
+            flags.setPasses(parsePasses(passes.get().substring("--passes=".length())));
+        }
+
+        var bench = !arguments.isEmpty() && arguments.get(0).equals("bench");
         int exitCode;
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
+        if (flags.getPasses() == null
+                // the VM and the benchmarks run without the interpreter that would count
+                || flags.isMetrics() && (flags.isUseVm() || bench)
+                // the benchmarks run each program whole, unobserved and with nothing printed
+                || bench && (flags.isPipeline() || flags.isProfile() || flags.isHeatMap() || flags.isMemoStats())
+                || !bench && arguments.size() > 1
+                || (flags.isProfile() || flags.isHeatMap()) && (arguments.isEmpty() || flags.isUseVm())
+                // purity is decided for a whole program, which the REPL and --pipeline never see; the VM has no memos
+                || flags.isMemoize() && (arguments.isEmpty() || flags.isPipeline() || flags.isUseVm())) {
+            System.out.println("Usage: jlox [--vm] [--pipeline] [--opt | --passes=<pass>,...] [script]");
+            System.out.println("       jlox [--pipeline] [--opt | --passes=<pass>,...] --metrics [script]");
+            System.out.println("       jlox [--opt | --passes=<pass>,...] (--memoize | --memo-stats) [--metrics]"
+                    + " script");
+            System.out.println("       jlox [--pipeline | --memoize] [--opt | --passes=<pass>,...]"
+                    + " --profile[=<collapsed stacks file>] script");
+            System.out.println("       jlox [--pipeline | --memoize] [--opt | --passes=<pass>,...]"
+                    + " --heatmap[=<file>] script");
+            System.out.println("       " + BenchmarkRunner.USAGE.substring("Usage: ".length()));
+            System.out.println("Passes, none unless asked for: " + String.join(", ", Optimizer.PASSES.keySet()));
             exitCode = 64;
-        } else if (args.length == 1) {
-            exitCode = runFile(args[0]);
+        } else if (bench) {
+            exitCode = BenchmarkRunner.run(arguments.subList(1, arguments.size()), flags);
+        } else if (arguments.size() == 1) {
+            exitCode = runFile(arguments.get(0), flags);
         } else {
-            exitCode = runPrompt();
+            exitCode = runPrompt(flags);
         }
         System.exit(exitCode);
     }
 
-    private static int runFile(String path) throws IOException {
-        byte[] bytes;
+    private static int runFile(String path, Flags flags) throws IOException {
+        ByteBuffer bytes;
         if ("-".equals(path)) {
-            bytes = System.in.readAllBytes();
+            bytes = ByteBuffer.wrap(System.in.readAllBytes());
         } else {
-            bytes = Files.readAllBytes(Paths.get(path));
+            // mapped, so only the pages the scanner is reading need to be in memory
+            try (var channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+        var source = Source.of(bytes, Charset.defaultCharset());
+        if (flags.metrics) {
+            interpreter.enableMetrics();
+        }
+        Profiler profiler = null;
+        if (flags.profile) {
+            profiler = new Profiler(Paths.get(path).getFileName().toString());
+            interpreter.setProfiler(profiler);
+            profiler.start();
+        }
+        HeatMap heatMap = null;
+        if (flags.heatMap) {
+            heatMap = new HeatMap();
+            interpreter.setHeatMap(heatMap);
+            // compiled functions would run without counting
+            interpreter.setJitEnabled(false);
+        }
+        if (flags.pipeline) {
+            runPipelined(source, flags);
+        } else {
+            run(source, flags);
+        }
+
+        if (interpreter.getMetrics() != null) {
+            System.err.println("metrics " + interpreter.getMetrics());
+        }
+        if (heatMap != null) {
+            var text = Charset.defaultCharset().decode(bytes.duplicate().rewind()).toString();
+            if (flags.heatMapOutput == null) {
+                heatMap.print(System.err, text);
+            } else {
+                try (var out = new PrintStream(flags.heatMapOutput, Charset.defaultCharset())) {
+                    heatMap.print(out, text);
+                }
+            }
+        }
+        if (profiler != null) {
+            profiler.stop();
+            profiler.report(System.err);
+            if (flags.profileOutput != null) {
+                profiler.writeCollapsed(Paths.get(flags.profileOutput));
+            }
+        }
+
+        if (flags.memoStats) {
+            for (var memo : memos) {
+                System.err.println("memo " + memo);
+            }
         }
-        run(new String(bytes, Charset.defaultCharset()));
 
         if (hadError) {
             return 65;
@@ -48,16 +173,21 @@ public class Lox {
     }
 
     private static final Interpreter interpreter = new Interpreter();
+    private static Vm vm;
+    private static final List<Memo> memos = new ArrayList<>();
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
 
-    private static int runPrompt() throws IOException {
+    private static int runPrompt(Flags flags) throws IOException {
+        if (flags.metrics) {
+            interpreter.enableMetrics();
+        }
+
         var input = new InputStreamReader(System.in);
         var reader = new BufferedReader(input);
 
         var unmatchedBraces = 0;
         var lineBuffer = new ArrayList<String>();
-        var flags = new Flags();
         for (;;) {
             var prompt = String.format("lox:%02d> ", lineBuffer.size());
             System.out.print(prompt);
@@ -82,6 +212,16 @@ public class Lox {
                 var arg = line.substring(5);
                 flags.setPrintEvaluable(Boolean.parseBoolean(arg) || arg.equals("on"));
                 System.out.println("print evaluable: " + (flags.isPrintEvaluable() ? "on" : "off"));
+            } else if (line.startsWith(":opt ")) {
+                var arg = line.substring(5);
+                if (Boolean.parseBoolean(arg) || arg.equals("on")) {
+                    flags.setPasses(List.copyOf(Optimizer.PASSES.keySet()));
+                } else if (arg.equals("false") || arg.equals("off")) {
+                    flags.setPasses(List.of());
+                } else if (parsePasses(arg) != null) {
+                    flags.setPasses(parsePasses(arg));
+                }
+                System.out.println("optimizer passes: " + String.join(", ", flags.getPasses()));
             } else if (!line.isEmpty()) {
                 lineBuffer.add(line);
                 unmatchedBraces += countUnmatchedBraces(line);
@@ -91,7 +231,7 @@ public class Lox {
                     var source = String.join("\n", lineBuffer);
                     lineBuffer.clear();
                     unmatchedBraces = 0;
-                    run(source, flags);
+                    run(Source.of(source), flags);
                 }
                 hadError = false;
             }
@@ -101,6 +241,15 @@ public class Lox {
         return 0;
     }
 
+    /** @return the pass names in the comma-separated list, or null if one of them is unknown */
+    private static List<String> parsePasses(String list) {
+        if (list.isEmpty()) {
+            return List.of();
+        }
+        var names = List.of(list.split(","));
+        return Optimizer.PASSES.keySet().containsAll(names) ? names : null;
+    }
+
     private static int countUnmatchedBraces(String line) {
         // scan as tokens
         var scanner = new Scanner(line);
@@ -120,22 +269,16 @@ public class Lox {
         return count;
     }
 
-    private static void run(String source) {
-        run(source, new Flags());
-    }
-
-    private static void run(String source, Flags flags) {
+    private static void run(Source source, Flags flags) {
         var scanner = new Scanner(source);
-        var tokens = scanner.scanTokens();
 
         if (flags.printTokens) {
-            for (var token : tokens) {
+            for (var token : scanner.scanTokens()) {
                 System.out.println(token);
             }
         }
-
-        var parser = new Parser(tokens);
-        var statements = parser.parse();
+        // tokens are scanned as the parser asks for them, unless they were printed
+        var statements = new Parser(scanner).parse();
 
         if (flags.printAst) {
             System.out.println(new AstPrinter().print(statements));
@@ -149,14 +292,56 @@ public class Lox {
             return;
         }
 
-        var resolver = new Resolver(interpreter);
+        execute(statements, flags);
+    }
+
+    /**
+     * Runs each top-level declaration as soon as it is parsed, so output starts right away and the statements that
+     * ran can be collected. After a scan, parse or resolve error nothing more runs, but the rest of the source is still
+     * parsed to report its syntax errors, and the exit code is 65 as usual. A runtime error stops everything, like it
+     * stops the interpreter; syntax errors after it go unreported.
+     */
+    private static void runPipelined(Source source, Flags flags) {
+        var parser = new Parser(new Scanner(source));
+        while (parser.hasNextDeclaration() && !hadRuntimeError) {
+            var statement = parser.nextDeclaration();
+            if (!hadError) {
+                execute(List.of(statement), flags);
+            }
+        }
+    }
+
+    /** Resolves, optimizes and runs parsed statements. */
+    private static void execute(List<Stmt> statements, Flags flags) {
+        var resolver = new Resolver();
         resolver.resolve(statements);
 
         if (hadError) {
             return;
         }
 
-        interpreter.interpret(statements);
+        if (!flags.passes.isEmpty()) {
+            statements = Optimizer.of(flags.passes).optimize(statements);
+        }
+
+        if (flags.memoize) {
+            for (var function : new PurityAnalyzer().analyze(statements)) {
+                var memo = new Memo(function.getName().getLexeme());
+                function.setMemo(memo);
+                memos.add(memo);
+            }
+        }
+
+        if (flags.useVm) {
+            if (vm == null) {
+                vm = new Vm();
+            }
+            if (vm.interpret(statements) == InterpretResult.RUNTIME_ERROR) {
+                hadRuntimeError = true;
+            }
+        } else {
+            interpreter.interpret(statements);
+        }
     }
 
     private static List<Stmt> printLastEvaluable(List<Stmt> stmts) {
@@ -182,10 +367,10 @@ public class Lox {
         var prefixExpr = new Expr.Literal("lox:==> ");
         var operator = new Token(TokenType.PLUS, "+", null, -1);
         var printExpr = new Expr.Binary(prefixExpr, operator, expr);
-        return new Stmt.Print(printExpr);
+        return new Stmt.Print(new Token(TokenType.PRINT, "print", null, -1), printExpr);
     }
 
-    static void error(int line, String message) {
+    public static void error(int line, String message) {
         report(line, "", message);
     }
 
@@ -199,7 +384,7 @@ public class Lox {
         hadError = true;
     }
 
-    static void error(Token token, String message) {
+    public static void error(Token token, String message) {
         if (token.getType() == TokenType.EOF) {
             report(token.getLine(), " at end", message);
         } else {
@@ -209,9 +394,22 @@ public class Lox {
 
     @Getter
     @Setter
-    private static class Flags {
+    static class Flags {
         private boolean printTokens = false;
         private boolean printAst = false;
         private boolean printEvaluable = false;
+        private boolean useVm = false;
+        // the unoptimized tree is the baseline the passes are measured against
+        private List<String> passes = List.of();
+        private boolean pipeline = false;
+        private boolean memoize = false;
+        private boolean memoStats = false;
+        private boolean profile = false;
+        // where to write collapsed stacks, if anywhere
+        private String profileOutput = null;
+        private boolean heatMap = false;
+        // where to write the heat map instead of stderr
+        private String heatMapOutput = null;
+        private boolean metrics = false;
     }
 }
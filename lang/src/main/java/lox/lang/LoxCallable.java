@@ -1,8 +1,33 @@
 package lox.lang;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
+/**
+ * Something Lox code can call. Callers check the arity before calling. Besides {@link #call}, which takes any number of
+ * arguments as a list, there are entry points for up to three arguments that implementations override to take them
+ * without allocating one.
+ */
 interface LoxCallable {
     int arity();
+
+    /** @return the result, or a {@link TailCall} left for the caller to make */
     Object call(Interpreter interpreter, List<Object> arguments);
+
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, List.of());
+    }
+
+    default Object call1(Interpreter interpreter, Object a) {
+        return call(interpreter, Collections.singletonList(a));
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b) {
+        return call(interpreter, Arrays.asList(a, b));
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return call(interpreter, Arrays.asList(a, b, c));
+    }
 }
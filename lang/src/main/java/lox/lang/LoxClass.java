@@ -1,6 +1,6 @@
 package lox.lang;
 
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -10,24 +10,23 @@ import lombok.Getter;
 class LoxClass implements LoxCallable {
     private final Stmt.Class declaration;
     private final Environment closure;
-    private final Map<String, LoxFunction> methods = new HashMap<>();
+    private final Map<Symbol, LoxFunction> methods = new IdentityHashMap<>();
+    private final Shape rootShape = new Shape(this);
 
     public LoxClass(Stmt.Class declaration, Environment closure) {
         this.declaration = declaration;
         this.closure = closure;
 
+        // methods are resolved inside the class scope, but get `this` in their own frame, so they can share one
+        var methodScope = new Environment(closure, declaration.getFrameSize());
         for (var method : declaration.getMethods()) {
-            var function = new LoxFunction(method, closure);
-            methods.put(method.getName().getLexeme(), function);
+            var function = LoxFunction.method(method, methodScope);
+            methods.put(method.getName().getSymbol(), function);
         }
     }
 
-    LoxFunction findMethod(String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name);
-        }
-
-        return null;
+    LoxFunction findMethod(Symbol name) {
+        return methods.get(name);
     }
 
     @Override
@@ -45,11 +44,11 @@ class LoxClass implements LoxCallable {
         var declParams = declaration.getParams();
         var instance = new LoxInstance(this);
         for (int i = 0; i < declParams.size(); i++) {
-            instance.getFields().put(declParams.get(i).getLexeme(), arguments.get(i));
+            instance.set(declParams.get(i), arguments.get(i));
         }
-        var environment = new Environment(closure);
-        environment.define("this", instance);
-        interpreter.executeBlock(declaration.getInit(), environment);
+        var environment = new Environment(closure, declaration.getFrameSize());
+        environment.define(0, instance);
+        interpreter.runTailCalls(interpreter.executeBody(declaration, declaration.getInit(), environment));
         return instance;
     }
 }
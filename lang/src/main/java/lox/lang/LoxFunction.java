@@ -1,18 +1,35 @@
 package lox.lang;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 
-@AllArgsConstructor
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
 public class LoxFunction implements LoxCallable {
     private final Stmt.Function declaration;
     private final Environment closure;
+    private final boolean method;
+    private final LoxInstance receiver;
+
+    LoxFunction(Stmt.Function declaration, Environment closure) {
+        this(declaration, closure, false, null);
+    }
+
+    static LoxFunction method(Stmt.Function declaration, Environment closure) {
+        return new LoxFunction(declaration, closure, true, null);
+    }
 
     LoxFunction bind(LoxInstance instance) {
-        var environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(declaration, environment);
+        return new LoxFunction(declaration, closure, true, instance);
+    }
+
+    /** @return whether this is a method as declared by its class, which needs a receiver passed to {@link #invoke} */
+    boolean isUnboundMethod() {
+        return method && receiver == null;
     }
 
     @Override
@@ -22,13 +39,181 @@ public class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        var environment = new Environment(closure);
-        for (int i = 0; i < declaration.getParams().size(); i++) {
-            environment.define(declaration.getParams().get(i).getLexeme(), arguments.get(i));
+        return invoke(interpreter, receiver, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return invoke0(interpreter, receiver);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return invoke1(interpreter, receiver, a);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return invoke2(interpreter, receiver, a, b);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return invoke3(interpreter, receiver, a, b, c);
+    }
+
+    Object invoke0(Interpreter interpreter, LoxInstance receiver) {
+        var frame = frame(interpreter, receiver);
+        if (frame == null) {
+            return invoke(interpreter, receiver, List.of());
+        }
+        return interpreter.executeBody(declaration, declaration.getBody(), frame);
+    }
+
+    Object invoke1(Interpreter interpreter, LoxInstance receiver, Object a) {
+        var frame = frame(interpreter, receiver);
+        if (frame == null) {
+            return invoke(interpreter, receiver, Collections.singletonList(a));
+        }
+        frame.define(0, a);
+        return interpreter.executeBody(declaration, declaration.getBody(), frame);
+    }
+
+    Object invoke2(Interpreter interpreter, LoxInstance receiver, Object a, Object b) {
+        var frame = frame(interpreter, receiver);
+        if (frame == null) {
+            return invoke(interpreter, receiver, Arrays.asList(a, b));
+        }
+        frame.define(0, a);
+        frame.define(1, b);
+        return interpreter.executeBody(declaration, declaration.getBody(), frame);
+    }
+
+    Object invoke3(Interpreter interpreter, LoxInstance receiver, Object a, Object b, Object c) {
+        var frame = frame(interpreter, receiver);
+        if (frame == null) {
+            return invoke(interpreter, receiver, Arrays.asList(a, b, c));
+        }
+        frame.define(0, a);
+        frame.define(1, b);
+        frame.define(2, c);
+        return interpreter.executeBody(declaration, declaration.getBody(), frame);
+    }
+
+    /**
+     * @return a frame for interpreting the call, holding the receiver but not yet the arguments; null if the call has
+     *         to take its arguments as a list, because it is memoized or compiled
+     */
+    private Environment frame(Interpreter interpreter, LoxInstance receiver) {
+        if (declaration.getMemo() != null || declaration.getCompiled() != null || tierUp(interpreter) != null) {
+            return null;
+        }
+        var environment = new Environment(closure, declaration.getFrameSize());
+        if (method) {
+            environment.define(declaration.getParams().size(), receiver);
+        }
+        return environment;
+    }
+
+    Object invoke(Interpreter interpreter, LoxInstance receiver, List<Object> arguments) {
+        if (declaration.getMemo() == null) {
+            return execute(interpreter, receiver, arguments);
+        }
+        return memoized(interpreter, arguments);
+    }
+
+    /**
+     * Calls a pure function through its {@link Memo}. Only final results can be cached, so tail calls to other pure
+     * functions are followed here, in a loop, and every call on the way caches the result.
+     */
+    private Object memoized(Interpreter interpreter, List<Object> arguments) {
+        var memos = new ArrayList<Memo>(1);
+        var keys = new ArrayList<List<Object>>(1);
+        var function = this;
+        Object value;
+        for (;;) {
+            var memo = function.declaration.getMemo();
+            var key = Memo.key(arguments);
+            value = memo.get(key);
+            if (value != Memo.ABSENT) {
+                break;
+            }
+            memos.add(memo);
+            keys.add(key);
+
+            value = function.execute(interpreter, null, arguments);
+            if (!(value instanceof TailCall)) {
+                break;
+            }
+            var tail = (TailCall) value;
+            if (!isPure(tail.getCallee()) || tail.getArguments().size() != ((LoxFunction) tail.getCallee()).arity()) {
+                // let the interpreter report what is wrong with the call
+                value = interpreter.runTailCalls(tail);
+                break;
+            }
+            function = (LoxFunction) tail.getCallee();
+            arguments = tail.getArguments();
+        }
+
+        for (int i = 0; i < memos.size(); i++) {
+            memos.get(i).put(keys.get(i), value);
+        }
+        return value;
+    }
+
+    private static boolean isPure(Object callee) {
+        return callee instanceof LoxFunction && ((LoxFunction) callee).declaration.getMemo() != null;
+    }
+
+    private Object execute(Interpreter interpreter, LoxInstance receiver, List<Object> arguments) {
+        var compiled = declaration.getCompiled();
+        if (compiled == null) {
+            compiled = tierUp(interpreter);
+        }
+        if (compiled != null) {
+            interpreter.countCall(declaration);
+            var profiler = interpreter.getProfiler();
+            if (profiler == null) {
+                return compiled.call(interpreter, closure, receiver, arguments);
+            }
+            profiler.push(declaration);
+            try {
+                return compiled.call(interpreter, closure, receiver, arguments);
+            } finally {
+                profiler.pop();
+            }
+        }
+
+        var environment = new Environment(closure, declaration.getFrameSize());
+        var params = declaration.getParams().size();
+        for (int i = 0; i < params; i++) {
+            environment.define(i, arguments.get(i));
+        }
+        if (method) {
+            environment.define(params, receiver);
+        }
+
+        return interpreter.executeBody(declaration, declaration.getBody(), environment);
+    }
+
+    /**
+     * Counts the call and compiles the declaration once it gets hot; null while it should still be interpreted. The
+     * count stops at the threshold, so a body the compiler rejected is not compiled again once it wraps around.
+     */
+    private CompiledFunction tierUp(Interpreter interpreter) {
+        var threshold = JitCompiler.THRESHOLD;
+        if (threshold <= 0 || !interpreter.isJitEnabled() || declaration.getCalls() >= threshold) {
+            return null;
+        }
+        var calls = declaration.getCalls() + 1;
+        declaration.setCalls(calls);
+        if (calls < threshold) {
+            return null;
         }
 
-        var result = interpreter.executeBlock(declaration.getBody(), environment);
-        return result.getValue();
+        var compiled = JitCompiler.compile(declaration, method);
+        declaration.setCompiled(compiled);
+        return compiled;
     }
 
     @Override
@@ -1,23 +1,29 @@
 package lox.lang;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 
-@RequiredArgsConstructor
-@Getter
 class LoxInstance {
+    private static final Object[] NO_FIELDS = new Object[0];
+
+    @Getter
     private final LoxClass loxClass;
-    private final Map<String, Object> fields = new HashMap<>();
+    private Shape shape;
+    private Object[] fields = NO_FIELDS;
+
+    LoxInstance(LoxClass loxClass) {
+        this.loxClass = loxClass;
+        this.shape = loxClass.getRootShape();
+    }
 
     public Object get(Token name) {
-        if (fields.containsKey(name.getLexeme())) {
-            return fields.get(name.getLexeme());
+        var slot = shape.slotOf(name.getSymbol());
+        if (slot >= 0) {
+            return fields[slot];
         }
 
-        var method = loxClass.findMethod(name.getLexeme());
+        var method = loxClass.findMethod(name.getSymbol());
         if (method != null) {
             return method.bind(this);
         }
@@ -25,11 +31,71 @@ class LoxInstance {
         throw new RuntimeError(name, "Undefined property '" + name.getLexeme() + "'.");
     }
 
+    Object get(Token name, PropertyCache cache) {
+        var property = getProperty(name, cache);
+        if (property instanceof LoxFunction && ((LoxFunction) property).isUnboundMethod()) {
+            return ((LoxFunction) property).bind(this);
+        }
+        return property;
+    }
+
+    /** Like {@link #get(Token, PropertyCache)}, but returns methods without binding them to this instance. */
+    Object getProperty(Token name, PropertyCache cache) {
+        var entry = cache.find(shape);
+        if (entry >= 0) {
+            var slot = cache.slot(entry);
+            return slot >= 0 ? fields[slot] : cache.target(entry);
+        }
+
+        var slot = shape.slotOf(name.getSymbol());
+        if (slot >= 0) {
+            cache.add(shape, slot, null);
+            return fields[slot];
+        }
+
+        var method = loxClass.findMethod(name.getSymbol());
+        if (method != null) {
+            cache.add(shape, -1, method);
+            return method;
+        }
+
+        throw new RuntimeError(name, "Undefined property '" + name.getLexeme() + "'.");
+    }
+
     public Object set(Token name, Object value) {
-        fields.put(name.getLexeme(), value);
+        var slot = shape.slotOf(name.getSymbol());
+        if (slot < 0) {
+            transition(shape.withField(name.getSymbol()));
+            slot = shape.size() - 1;
+        }
+        fields[slot] = value;
         return value;
     }
 
+    Object set(Token name, Object value, PropertyCache cache) {
+        var entry = cache.find(shape);
+        if (entry < 0) {
+            var before = shape;
+            set(name, value);
+            cache.add(before, shape.slotOf(name.getSymbol()), shape);
+            return value;
+        }
+
+        var next = (Shape) cache.target(entry);
+        if (next != shape) {
+            transition(next);
+        }
+        fields[cache.slot(entry)] = value;
+        return value;
+    }
+
+    private void transition(Shape next) {
+        if (next.size() > fields.length) {
+            fields = Arrays.copyOf(fields, Math.max(4, fields.length * 2));
+        }
+        shape = next;
+    }
+
     @Override
     public String toString() {
         return "instance " + loxClass.getDeclaration().getName().getLexeme();
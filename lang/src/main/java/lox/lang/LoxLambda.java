@@ -6,24 +6,55 @@ import lombok.AllArgsConstructor;
 
 @AllArgsConstructor
 public class LoxLambda implements LoxCallable {
-    private final List<Token> params;
-    private final List<Stmt> body;
+    private final Expr.Lambda declaration;
     private final Environment closure;
 
     @Override
     public int arity() {
-        return params.size();
+        return declaration.getParams().size();
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        var environment = new Environment(closure);
-        for (int i = 0; i < params.size(); i++) {
-            environment.define(params.get(i).getLexeme(), arguments.get(i));
+        var environment = frame();
+        for (int i = 0; i < declaration.getParams().size(); i++) {
+            environment.define(i, arguments.get(i));
         }
 
-        var result = interpreter.executeBlock(body, environment);
-        return result.getValue();
+        return interpreter.executeBody(declaration, declaration.getBody(), environment);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return interpreter.executeBody(declaration, declaration.getBody(), frame());
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        var environment = frame();
+        environment.define(0, a);
+        return interpreter.executeBody(declaration, declaration.getBody(), environment);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        var environment = frame();
+        environment.define(0, a);
+        environment.define(1, b);
+        return interpreter.executeBody(declaration, declaration.getBody(), environment);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        var environment = frame();
+        environment.define(0, a);
+        environment.define(1, b);
+        environment.define(2, c);
+        return interpreter.executeBody(declaration, declaration.getBody(), environment);
+    }
+
+    private Environment frame() {
+        return new Environment(closure, declaration.getFrameSize());
     }
 
     @Override
@@ -0,0 +1,72 @@
+package lox.lang;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * The results of a pure function by argument list, see {@link PurityAnalyzer}. Holds at most {@link #CAPACITY}
+ * entries, evicting the least recently used one.
+ */
+class Memo {
+    static final int CAPACITY = Integer.getInteger("lox.memo.capacity", 1024);
+
+    /** Returned by {@link #get} when there is no entry, since nil is a valid result. */
+    static final Object ABSENT = new Object();
+
+    @Getter
+    private final String name;
+    private final Map<List<Object>, Object> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+    @Getter
+    private long hits = 0;
+    @Getter
+    private long misses = 0;
+
+    Memo(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param key made from the arguments by {@link #key}
+     * @return the result for the arguments, or {@link #ABSENT}
+     */
+    Object get(List<Object> key) {
+        var value = entries.getOrDefault(key, ABSENT);
+        if (value == ABSENT) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    void put(List<Object> key, Object value) {
+        entries.put(key, value);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    static List<Object> key(List<Object> arguments) {
+        var key = new ArrayList<Object>(arguments.size());
+        for (var argument : arguments) {
+            // a rope and a string with the same characters are the same argument
+            key.add(argument instanceof Rope ? argument.toString() : argument);
+        }
+        return key;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + hits + " hits, " + misses + " misses, " + entries.size() + " cached";
+    }
+}
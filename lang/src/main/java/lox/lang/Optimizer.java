@@ -0,0 +1,54 @@
+package lox.lang;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import lombok.AllArgsConstructor;
+
+/**
+ * Runs a pipeline of passes over resolved statements before they are executed. Passes rebuild the nodes they change
+ * without the annotations the {@link Resolver} left on them, so the tree is resolved again after every pass that
+ * changed something.
+ */
+@AllArgsConstructor
+class Optimizer {
+    /** The available passes by name, in the order of the standard pipeline. */
+    static final Map<String, Supplier<Pass>> PASSES = new LinkedHashMap<>();
+
+    static {
+        PASSES.put("fold", ConstantFolder::new);
+        PASSES.put("propagate", ConstantPropagator::new);
+        PASSES.put("dce", DeadCodeEliminator::new);
+        PASSES.put("licm", LoopInvariantHoister::new);
+    }
+
+    private final List<Pass> passes;
+
+    /** @param names passes to run, in order; each must be a key of {@link #PASSES} */
+    static Optimizer of(List<String> names) {
+        var passes = new ArrayList<Pass>();
+        for (var name : names) {
+            passes.add(PASSES.get(name).get());
+        }
+        return new Optimizer(passes);
+    }
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        for (var pass : passes) {
+            var optimized = pass.run(statements);
+            if (optimized != statements) {
+                new Resolver().resolve(optimized);
+                statements = optimized;
+            }
+        }
+        return statements;
+    }
+
+    interface Pass {
+        /** @return the rewritten statements, or the same list if nothing changed */
+        List<Stmt> run(List<Stmt> statements);
+    }
+}
@@ -9,21 +9,32 @@ class Parser {
     private static class ParseError extends RuntimeException {
     }
 
-    private final List<Token> tokens;
+    // scanned on demand, releasing all but the tokens around the current one
+    private final Scanner tokens;
+    // index of the current token
     private int current = 0;
 
-    Parser(List<Token> tokens) {
+    Parser(Scanner tokens) {
         this.tokens = tokens;
     }
 
     List<Stmt> parse() {
         var statements = new ArrayList<Stmt>();
-        while (!isAtEnd()) {
-            statements.add(declaration());
+        while (hasNextDeclaration()) {
+            statements.add(nextDeclaration());
         }
         return statements;
     }
 
+    boolean hasNextDeclaration() {
+        return !isAtEnd();
+    }
+
+    /** @return the next top-level declaration, or null if it has a syntax error, which has been reported */
+    Stmt nextDeclaration() {
+        return declaration();
+    }
+
     private Stmt declaration() {
         try {
             if (match(CLASS)) {
@@ -45,7 +56,8 @@ class Parser {
     }
 
     private Stmt classDeclaration() {
-        var name = consume(IDENTIFIER, "Expect class name.");
+        consume(IDENTIFIER, "Expect class name.");
+        var name = previous();
         var parameters = match(PAREN_LEFT) ? parameters() : List.<Token>of();
 
         var methods = new ArrayList<Stmt.Function>();
@@ -72,7 +84,8 @@ class Parser {
                 if (parameters.size() >= 255) {
                     error(peek(), "Cannot declare more than 255 paramters.");
                 }
-                parameters.add(consume(IDENTIFIER, "Expect parameter name."));
+                consume(IDENTIFIER, "Expect parameter name.");
+                parameters.add(previous());
             } while (match(COMMA));
         }
         consume(PAREN_RIGHT, "Expect ')' after parameters.");
@@ -108,6 +121,7 @@ class Parser {
     }
 
     private Stmt forStatement() {
+        var keyword = previous();
         consume(PAREN_LEFT, "Expect '(' after 'for'.");
 
         Stmt initializer;
@@ -131,7 +145,7 @@ class Parser {
             body = new Stmt.Block(List.of(body, incrementStmtExpr));
         }
 
-        body = new Stmt.While(condition, body);
+        body = new Stmt.While(keyword, condition, body);
 
         if (initializer != null) {
             body = new Stmt.Block(List.of(initializer, body));
@@ -141,19 +155,21 @@ class Parser {
     }
 
     private Stmt ifStatement() {
+        var keyword = previous();
         consume(PAREN_LEFT, "Expect '(' after 'if'.");
         var condition = expression();
         consume(PAREN_RIGHT, "Expect ')' after if condition.");
         var thenBranch = statement();
         var elseBranch = match(ELSE) ? statement() : null;
 
-        return new Stmt.If(condition, thenBranch, elseBranch);
+        return new Stmt.If(keyword, condition, thenBranch, elseBranch);
     }
 
     private Stmt printStatement() {
+        var keyword = previous();
         var value = expression();
         consume(SEMICOLON, "Expect ';' after expression.");
-        return new Stmt.Print(value);
+        return new Stmt.Print(keyword, value);
     }
 
     private Stmt returnStatement() {
@@ -164,16 +180,18 @@ class Parser {
     }
 
     private Stmt whileStatement() {
+        var keyword = previous();
         consume(PAREN_LEFT, "Expect '(' after 'while'.");
         var condition = expression();
         consume(PAREN_RIGHT, "Expect ')' after while condition.");
         var body = statement();
 
-        return new Stmt.While(condition, body);
+        return new Stmt.While(keyword, condition, body);
     }
 
     private Stmt varDeclaration() {
-        var name = consume(IDENTIFIER, "Expect variable name.");
+        consume(IDENTIFIER, "Expect variable name.");
+        var name = previous();
 
         Expr initializer = null;
         if (match(EQUAL)) {
@@ -191,8 +209,9 @@ class Parser {
     }
 
     private Stmt.Function function(String kind) {
-        var name = consume(IDENTIFIER, "Expect " + kind + " name.");
-        var defn = funDefinition(kind);
+        consume(IDENTIFIER, "Expect " + kind + " name.");
+        var name = previous();
+        var defn = funDefinition(name, kind);
         return new Stmt.Function(name, defn.getParams(), defn.getBody());
     }
 
@@ -347,7 +366,8 @@ class Parser {
             if (match(PAREN_LEFT)) {
                 expr = finishCall(expr);
             } else if (match(DOT)) {
-                var name = consume(IDENTIFIER, "Expect property name after '.'.");
+                consume(IDENTIFIER, "Expect property name after '.'.");
+                var name = previous();
                 expr = new Expr.Get(expr, name);
             } else {
                 break;
@@ -366,18 +386,19 @@ class Parser {
                 arguments.add(expression());
             } while (match(COMMA));
         }
-        var paren = consume(PAREN_RIGHT, "Expect ')' after arguments.");
+        consume(PAREN_RIGHT, "Expect ')' after arguments.");
+        var paren = previous();
         return new Expr.Call(callee, paren, arguments);
     }
 
     private Expr lambda() {
         if (match(FUN)) {
-            return funDefinition("lambda");
+            return funDefinition(previous(), "lambda");
         }
         return primary();
     }
 
-    private Expr.Lambda funDefinition(String kind) {
+    private Expr.Lambda funDefinition(Token keyword, String kind) {
         consume(PAREN_LEFT, "Expect '(' before " + kind + " parameters.");
         var parameters = new ArrayList<Token>();
         if (!check(PAREN_RIGHT)) {
@@ -385,14 +406,15 @@ class Parser {
                 if (parameters.size() >= 255) {
                     error(peek(), "Cannot declare more than 255 paramters.");
                 }
-                parameters.add(consume(IDENTIFIER, "Expect parameter name."));
+                consume(IDENTIFIER, "Expect parameter name.");
+                parameters.add(previous());
             } while (match(COMMA));
         }
         consume(PAREN_RIGHT, "Expect ')' after parameters.");
 
         consume(BRACE_LEFT, "Expect '{' before " + kind + " body.");
         var body = block();
-        return new Expr.Lambda(parameters, body);
+        return new Expr.Lambda(keyword, parameters, body);
     }
 
     private Expr primary() {
@@ -423,9 +445,12 @@ class Parser {
         throw error(peek(), "Expect expression.");
     }
 
-    private Token consume(TokenType type, String message) {
-        if (check(type))
-            return advance();
+    /** Advances past a token of the type; {@link #previous} builds it if it is needed. */
+    private void consume(TokenType type, String message) {
+        if (check(type)) {
+            advance();
+            return;
+        }
 
         throw error(peek(), message);
     }
@@ -439,10 +464,10 @@ class Parser {
         advance();
 
         while (!isAtEnd()) {
-            if (previous().getType() == SEMICOLON)
+            if (tokens.type(current - 1) == SEMICOLON)
                 return;
 
-            switch (peek().getType()) {
+            switch (tokens.type(current)) {
                 case CLASS:
                 case FUN:
                 case VAR:
@@ -472,38 +497,29 @@ class Parser {
     }
 
     private boolean check(TokenType type) {
-        return !isAtEnd() && peek().getType() == type;
+        return !isAtEnd() && tokens.type(current) == type;
     }
 
     private boolean checkNext(TokenType type) {
-        var nextType = peekNext().getType();
-        return nextType != EOF && nextType == type;
+        return !isAtEnd() && type != EOF && tokens.type(current + 1) == type;
     }
 
-    private Token advance() {
+    private void advance() {
         if (!isAtEnd()) {
             current++;
+            tokens.release(current - 1);
         }
-        var token = previous();
-        return token;
     }
 
     private boolean isAtEnd() {
-        return peek().getType() == EOF;
+        return tokens.type(current) == EOF;
     }
 
     private Token peek() {
-        return tokens.get(current);
-    }
-
-    private Token peekNext() {
-        if (isAtEnd()) {
-            return peek();
-        }
-        return tokens.get(current + 1);
+        return tokens.token(current);
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.token(current - 1);
     }
 }
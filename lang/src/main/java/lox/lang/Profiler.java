@@ -0,0 +1,157 @@
+package lox.lang;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A sampling profiler for Lox code, for {@code --profile}. The interpreter keeps a shadow stack of the declarations
+ * of the functions, lambdas and classes it is running, and a background thread samples it at a fixed interval. Pushing
+ * and popping only store into an array, and the sampler reads it without locking, so a sample may mix up the frames
+ * of a call that happens while it is taken; over many samples that does not matter.
+ * <p>
+ * Samples are counted by stack, which {@link #writeCollapsed} writes in the collapsed format flame graph tools read,
+ * one {@code root;outer;inner count} line per stack, and {@link #report} summarizes as the functions with the most
+ * samples on top of the stack (self) or anywhere in it (total).
+ */
+class Profiler {
+    private static final long INTERVAL = Long.getLong("lox.profile.interval", 1_000_000L);
+    private static final int TOP = Integer.getInteger("lox.profile.top", 20);
+
+    private final String root;
+    // written by the interpreter, read by the sampler
+    private volatile Object[] frames = new Object[64];
+    private volatile int depth = 0;
+
+    // only used by the sampler, and by the reports once it stopped
+    private final Map<String, Long> stacks = new HashMap<>();
+    private final Map<Object, String> labels = new IdentityHashMap<>();
+    private long samples = 0;
+    private Thread sampler;
+    private volatile boolean stopped = false;
+
+    /** @param root the name of the bottom frame, which stands for the top-level code of the script */
+    Profiler(String root) {
+        this.root = root.replace(';', '_').replace(' ', '_');
+    }
+
+    void push(Object declaration) {
+        var frames = this.frames;
+        if (depth == frames.length) {
+            frames = Arrays.copyOf(frames, frames.length * 2);
+            this.frames = frames;
+        }
+        frames[depth] = declaration;
+        depth++;
+    }
+
+    void pop() {
+        depth--;
+    }
+
+    void start() {
+        sampler = new Thread(this::sample, "lox-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    void stop() {
+        stopped = true;
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sample() {
+        var stack = new StringBuilder();
+        while (!stopped) {
+            LockSupport.parkNanos(INTERVAL);
+
+            var depth = this.depth;
+            var frames = this.frames;
+            stack.setLength(0);
+            stack.append(root);
+            for (int i = 0; i < Math.min(depth, frames.length); i++) {
+                var frame = frames[i];
+                if (frame != null) {
+                    stack.append(';').append(label(frame));
+                }
+            }
+            stacks.merge(stack.toString(), 1L, Long::sum);
+            samples++;
+        }
+    }
+
+    /** @return the name and line of a declaration */
+    private String label(Object declaration) {
+        var label = labels.get(declaration);
+        if (label == null) {
+            Token token;
+            if (declaration instanceof Stmt.Function) {
+                token = ((Stmt.Function) declaration).getName();
+            } else if (declaration instanceof Stmt.Class) {
+                token = ((Stmt.Class) declaration).getName();
+            } else {
+                token = ((Expr.Lambda) declaration).getKeyword();
+            }
+            label = (token.getType() == TokenType.FUN ? "lambda" : token.getLexeme()) + ":" + token.getLine();
+            labels.put(declaration, label);
+        }
+        return label;
+    }
+
+    void writeCollapsed(Path file) throws IOException {
+        var lines = new ArrayList<String>();
+        for (var entry : stacks.entrySet()) {
+            lines.add(entry.getKey() + " " + entry.getValue());
+        }
+        Collections.sort(lines);
+        Files.write(file, lines);
+    }
+
+    /** Prints the functions with the most samples, by self and total samples. */
+    void report(PrintStream out) {
+        var self = new HashMap<String, Long>();
+        var total = new HashMap<String, Long>();
+        for (var entry : stacks.entrySet()) {
+            var frames = entry.getKey().split(";");
+            var count = entry.getValue();
+            self.merge(frames[frames.length - 1], count, Long::sum);
+            // recursive functions count once per sample
+            for (var frame : new HashSet<>(List.of(frames))) {
+                total.merge(frame, count, Long::sum);
+            }
+        }
+
+        var functions = new ArrayList<>(total.keySet());
+        functions.sort((a, b) -> {
+            var bySelf = Long.compare(self.getOrDefault(b, 0L), self.getOrDefault(a, 0L));
+            return bySelf != 0 ? bySelf : Long.compare(total.get(b), total.get(a));
+        });
+
+        out.println(String.format("%d samples, every %.3f ms", samples, INTERVAL / 1e6));
+        out.println(String.format("%8s %7s %8s %7s  %s", "self", "%", "total", "%", "function"));
+        for (var function : functions.subList(0, Math.min(TOP, functions.size()))) {
+            var selfCount = self.getOrDefault(function, 0L);
+            var totalCount = total.get(function);
+            out.println(String.format("%8d %6.1f%% %8d %6.1f%%  %s", selfCount, percent(selfCount),
+                    totalCount, percent(totalCount), function));
+        }
+    }
+
+    private double percent(long count) {
+        return samples == 0 ? 0 : 100d * count / samples;
+    }
+}
@@ -0,0 +1,47 @@
+package lox.lang;
+
+/**
+ * Polymorphic inline cache for the property access of one {@link Expr.Get} or {@link Expr.Set}. Each entry maps a
+ * receiver {@link Shape} to what the lookup found for it: a field slot, plus the method to bind for gets that hit a
+ * method, or the shape after the store for sets that add a field. Once more shapes than it holds have been seen, the
+ * cache stops recording and every access takes the uncached path.
+ * <p>
+ * The interpreter detaches the caches it created from the AST when its run finishes, so a function that outlives the
+ * run, in the REPL or in a benchmark, does not keep the classes and methods of an earlier run alive.
+ */
+class PropertyCache {
+    private static final int MAX_ENTRIES = 4;
+
+    private final Shape[] shapes = new Shape[MAX_ENTRIES];
+    private final int[] slots = new int[MAX_ENTRIES];
+    private final Object[] targets = new Object[MAX_ENTRIES];
+    private int size = 0;
+
+    /** @return the index of the entry for the shape, or -1 on a miss */
+    int find(Shape shape) {
+        for (int i = 0; i < size; i++) {
+            if (shapes[i] == shape) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    int slot(int entry) {
+        return slots[entry];
+    }
+
+    Object target(int entry) {
+        return targets[entry];
+    }
+
+    void add(Shape shape, int slot, Object target) {
+        if (size == MAX_ENTRIES) {
+            return;
+        }
+        shapes[size] = shape;
+        slots[size] = slot;
+        targets[size] = target;
+        size++;
+    }
+}
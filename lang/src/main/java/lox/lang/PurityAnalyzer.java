@@ -0,0 +1,211 @@
+package lox.lang;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Finds the functions whose result only depends on their arguments, so calls to them can be served from a
+ * {@link Memo}. A pure function reads and writes nothing but its own parameters and locals, does not print, touches
+ * no properties, creates no functions or classes, and only calls functions that are pure themselves, by the name of
+ * a function declaration that is never assigned. Methods are never pure, since they read {@code this}.
+ * <p>
+ * Purity is checked optimistically: every candidate starts out pure and those calling something else are dropped
+ * until nothing changes, so recursive functions like {@code fib} qualify.
+ */
+class PurityAnalyzer extends AstRewriter {
+    private final List<Candidate> candidates = new ArrayList<>();
+    private final Deque<Candidate> enclosing = new ArrayDeque<>();
+    private final Set<Stmt.Function> methods = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private final Map<String, List<Object>> globalDeclarations = new HashMap<>();
+    private final Set<String> assignedGlobals = new HashSet<>();
+    private final Set<Object> assignedLocals = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /** @return the pure functions among the statements */
+    List<Stmt.Function> analyze(List<Stmt> statements) {
+        rewrite(statements);
+
+        var pure = Collections.newSetFromMap(new IdentityHashMap<Stmt.Function, Boolean>());
+        for (var candidate : candidates) {
+            if (!candidate.impure) {
+                pure.add(candidate.function);
+            }
+        }
+        boolean changed;
+        do {
+            changed = false;
+            for (var candidate : candidates) {
+                if (pure.contains(candidate.function) && !candidate.callees.stream().allMatch(
+                        callee -> pure.contains(constantFunction(callee)))) {
+                    pure.remove(candidate.function);
+                    changed = true;
+                }
+            }
+        } while (changed);
+
+        var result = new ArrayList<Stmt.Function>();
+        for (var candidate : candidates) {
+            if (pure.contains(candidate.function)) {
+                result.add(candidate.function);
+            }
+        }
+        return result;
+    }
+
+    /** @return the function a callee always refers to, or null */
+    private Stmt.Function constantFunction(Object callee) {
+        if (callee instanceof String) {
+            var declarations = globalDeclarations.get(callee);
+            if (declarations == null || declarations.size() != 1 || assignedGlobals.contains(callee)) {
+                return null;
+            }
+            callee = declarations.get(0);
+        }
+        if (callee instanceof Stmt.Function && !assignedLocals.contains(callee) && !methods.contains(callee)) {
+            return (Stmt.Function) callee;
+        }
+        return null;
+    }
+
+    private void impure() {
+        if (!enclosing.isEmpty()) {
+            enclosing.peek().impure = true;
+        }
+    }
+
+    /** @return whether the variable at the depth was declared by the function being analyzed */
+    private boolean isLocal(int depth) {
+        return depth >= 0 && !enclosing.isEmpty() && scopeCount() - 1 - depth >= enclosing.peek().scope;
+    }
+
+    private void declareGlobal(Token name, int slot, Object declaration) {
+        if (slot < 0) {
+            globalDeclarations.computeIfAbsent(name.getLexeme(), n -> new ArrayList<>()).add(declaration);
+        }
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        if (expr.getDepth() < 0) {
+            assignedGlobals.add(expr.getName().getLexeme());
+        } else {
+            assignedLocals.add(declarationOf(expr.getDepth(), expr.getSlot()));
+        }
+        if (!isLocal(expr.getDepth())) {
+            impure();
+        }
+        return super.visitAssignExpr(expr);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        if (!enclosing.isEmpty() && expr.getCallee() instanceof Expr.Variable) {
+            var callee = (Expr.Variable) expr.getCallee();
+            if (callee.getDepth() < 0) {
+                enclosing.peek().callees.add(callee.getName().getLexeme());
+            } else if (!isLocal(callee.getDepth())) {
+                enclosing.peek().callees.add(declarationOf(callee.getDepth(), callee.getSlot()));
+            } else {
+                // a local could hold anything
+                impure();
+            }
+            rewriteAll(expr.getArguments(), this::rewrite);
+            return expr;
+        }
+        impure();
+        return super.visitCallExpr(expr);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        impure();
+        return super.visitGetExpr(expr);
+    }
+
+    @Override
+    public Expr visitLambdaExpr(Expr.Lambda expr) {
+        impure();
+        enclosing.push(new Candidate(null, scopeCount()));
+        var rewritten = super.visitLambdaExpr(expr);
+        enclosing.pop();
+        return rewritten;
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        impure();
+        return super.visitSetExpr(expr);
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        impure();
+        return expr;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        // functions may only be read as callees, see visitCallExpr
+        if (!isLocal(expr.getDepth())) {
+            impure();
+        }
+        return expr;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        impure();
+        declareGlobal(stmt.getName(), stmt.getSlot(), stmt);
+        methods.addAll(stmt.getMethods());
+        enclosing.push(new Candidate(null, scopeCount()));
+        var rewritten = super.visitClassStmt(stmt);
+        enclosing.pop();
+        return rewritten;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        impure();
+        declareGlobal(stmt.getName(), stmt.getSlot(), stmt);
+        var candidate = new Candidate(methods.contains(stmt) ? null : stmt, scopeCount());
+        if (candidate.function != null) {
+            candidates.add(candidate);
+        }
+        enclosing.push(candidate);
+        var rewritten = super.visitFunctionStmt(stmt);
+        enclosing.pop();
+        return rewritten;
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        impure();
+        return super.visitPrintStmt(stmt);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        declareGlobal(stmt.getName(), stmt.getSlot(), stmt);
+        return super.visitVarStmt(stmt);
+    }
+
+    @RequiredArgsConstructor
+    private static class Candidate {
+        // null for lambdas, methods and classes, which are analyzed only for what they do to their callees
+        private final Stmt.Function function;
+        // index of the function's own scope
+        private final int scope;
+        private final List<Object> callees = new ArrayList<>();
+        private boolean impure = false;
+    }
+}
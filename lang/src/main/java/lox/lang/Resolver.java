@@ -5,12 +5,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
-import lombok.RequiredArgsConstructor;
+import lombok.AllArgsConstructor;
 
-@RequiredArgsConstructor
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Stack<Map<String, Local>> scopes = new Stack<>();
 
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
@@ -18,7 +16,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.getValue());
-        resolveLocal(expr, expr.getName());
+        var depth = depthOf(expr.getName());
+        expr.setDepth(depth);
+        expr.setSlot(slotOf(depth, expr.getName()));
         return null;
     }
 
@@ -58,7 +58,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             define(param);
         }
         resolve(expr.getBody());
-        endScope();
+        expr.setFrameSize(endScope());
         return null;
     }
 
@@ -95,7 +95,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             Lox.error(expr.getKeyword(), "Can't use 'this' outside of a class.");
             return null;
         }
-        resolveLocal(expr, expr.getKeyword());
+        var depth = depthOf(expr.getKeyword());
+        expr.setDepth(depth);
+        expr.setSlot(slotOf(depth, expr.getKeyword()));
         return null;
     }
 
@@ -107,18 +109,26 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.getName().getLexeme()) == Boolean.FALSE) {
+        if (!scopes.isEmpty() && isDeclaredOnly(scopes.peek().get(expr.getName().getLexeme()))) {
             Lox.error(expr.getName(), "Can't read local variable within its own initializer.");
         }
-        resolveLocal(expr, expr.getName());
+        var depth = depthOf(expr.getName());
+        expr.setDepth(depth);
+        expr.setSlot(slotOf(depth, expr.getName()));
         return null;
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
+        if (!declaresAnything(stmt.getStatements())) {
+            // no scope of its own, which a frame size of zero tells the interpreter and compilers
+            resolve(stmt.getStatements());
+            stmt.setFrameSize(0);
+            return null;
+        }
         beginScope();
         resolve(stmt.getStatements());
-        endScope();
+        stmt.setFrameSize(endScope());
         return null;
     }
 
@@ -127,11 +137,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         var enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
 
-        declare(stmt.getName());
+        stmt.setSlot(declare(stmt.getName()));
         define(stmt.getName());
 
         beginScope();
-        scopes.peek().put("this", true);
+        scopes.peek().put("this", new Local(0, true));
 
         resolve(stmt.getInit());
 
@@ -140,7 +150,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             resolveFunction(method, declaration);
         }
 
-        endScope();
+        stmt.setFrameSize(endScope());
         currentClass = enclosingClass;
         return null;
     }
@@ -153,7 +163,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.getName());
+        stmt.setSlot(declare(stmt.getName()));
         define(stmt.getName());
         resolveFunction(stmt, FunctionType.FUNCTION);
         return null;
@@ -182,13 +192,14 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
         if (stmt.getValue() != null) {
             resolve(stmt.getValue());
+            stmt.setTailCall(stmt.getValue() instanceof Expr.Call);
         }
         return null;
     }
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.getName());
+        stmt.setSlot(declare(stmt.getName()));
         if (stmt.getInitializer() != null) {
             resolve(stmt.getInitializer());
         }
@@ -225,44 +236,81 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             declare(param);
             define(param);
         }
+        if (type == FunctionType.METHOD) {
+            // methods get their receiver in the slot after the parameters, see LoxFunction#invoke
+            scopes.peek().put("this", new Local(function.getParams().size(), true));
+        }
         resolve(function.getBody());
-        endScope();
+        function.setFrameSize(endScope());
         currentFunction = enclosingFunction;
     }
 
+    private static boolean declaresAnything(List<Stmt> statements) {
+        for (var statement : statements) {
+            if (statement instanceof Stmt.Var || statement instanceof Stmt.Function
+                    || statement instanceof Stmt.Class) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        scopes.push(new HashMap<String, Local>());
     }
 
-    private void endScope() {
-        scopes.pop();
+    /** @return the number of slots the scope needs at runtime */
+    private int endScope() {
+        return scopes.pop().size();
     }
 
-    private void declare(Token name) {
+    /** @return the slot assigned to the name, or -1 if it is a global */
+    private int declare(Token name) {
         if (scopes.isEmpty()) {
-            return;
+            return -1;
         }
         var scope = scopes.peek();
         if (scope.containsKey(name.getLexeme())) {
             Lox.error(name, "Already a variable with this name in scope.");
+            return scope.get(name.getLexeme()).slot;
         }
-        scope.put(name.getLexeme(), false);
+        var slot = scope.size();
+        scope.put(name.getLexeme(), new Local(slot, false));
+        return slot;
     }
 
     private void define(Token name) {
         if (scopes.isEmpty()) {
             return;
         }
-        scopes.peek().put(name.getLexeme(), true);
+        scopes.peek().get(name.getLexeme()).defined = true;
+    }
+
+    private static boolean isDeclaredOnly(Local local) {
+        return local != null && !local.defined;
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    /** @return how many scopes out the variable is declared, or -1 if it is a global */
+    private int depthOf(Token name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
             if (scopes.get(i).containsKey(name.getLexeme())) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+                return scopes.size() - 1 - i;
             }
         }
+        return -1;
+    }
+
+    private int slotOf(int depth, Token name) {
+        if (depth < 0) {
+            return -1;
+        }
+        return scopes.get(scopes.size() - 1 - depth).get(name.getLexeme()).slot;
+    }
+
+    @AllArgsConstructor
+    private static class Local {
+        private final int slot;
+        private boolean defined;
     }
 
     private enum FunctionType {
@@ -0,0 +1,122 @@
+package lox.lang;
+
+import java.util.ArrayDeque;
+
+/**
+ * A Lox string built by concatenation. Appending to a rope is constant time; its characters are only copied once,
+ * into a flat {@link String}, when the rope is printed, compared or hashed. Lox strings are therefore either a
+ * {@link String} or a {@link Rope}, see {@link #isString}.
+ */
+final class Rope implements CharSequence {
+    // shorter results are cheaper to copy right away than to keep as a tree
+    private static final int MIN_LENGTH = 64;
+
+    private final int length;
+    // both null once flattened
+    private CharSequence left;
+    private CharSequence right;
+    private String flat;
+
+    private Rope(CharSequence left, CharSequence right, int length) {
+        this.length = length;
+        this.left = left;
+        this.right = right;
+    }
+
+    static boolean isString(Object value) {
+        return value instanceof String || value instanceof Rope;
+    }
+
+    /** @return the concatenation of two Lox values, at least one of which is a string */
+    static CharSequence join(Object left, Object right, Token operator) {
+        return concat(text(left), text(right), operator);
+    }
+
+    private static CharSequence text(Object value) {
+        return value instanceof Rope ? (Rope) value : Interpreter.stringify(value);
+    }
+
+    /**
+     * @return the concatenation of two Lox strings
+     * @throws RuntimeError at the operator if the result would be longer than a string can be, which a rope reaches
+     *         without using much memory by being concatenated with itself
+     */
+    static CharSequence concat(CharSequence left, CharSequence right, Token operator) {
+        if (left.length() == 0) {
+            return right;
+        }
+        if (right.length() == 0) {
+            return left;
+        }
+        int length;
+        try {
+            length = Math.addExact(left.length(), right.length());
+        } catch (ArithmeticException e) {
+            throw new RuntimeError(operator, "String too long.");
+        }
+        if (length < MIN_LENGTH) {
+            return left.toString() + right;
+        }
+        return new Rope(left, right, length);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) {
+            flat = flatten();
+            left = null;
+            right = null;
+        }
+        return flat;
+    }
+
+    /** Copies the leaves in order without recursing, since ropes built in a loop are as deep as they are long. */
+    private String flatten() {
+        var builder = new StringBuilder(length);
+        var pending = new ArrayDeque<CharSequence>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            var next = pending.pop();
+            if (next instanceof Rope && ((Rope) next).flat == null) {
+                var rope = (Rope) next;
+                pending.push(rope.right);
+                pending.push(rope.left);
+            } else {
+                builder.append(next.toString());
+            }
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Rope) || ((Rope) other).length != length) {
+            return false;
+        }
+        return toString().equals(other.toString());
+    }
+
+    /** The hash of the flat string, which {@link String} caches. */
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
@@ -1,62 +1,127 @@
 package lox.lang;
 
-import static java.util.Map.entry;
 import static lox.lang.TokenType.*;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
-import lombok.Getter;
-import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
-
-@Getter
-@RequiredArgsConstructor
+/**
+ * Splits source text into tokens. Tokens are scanned as they are asked for, by their index from the start of the
+ * source, and kept packed into two longs each: the start offset and length of the lexeme, and the line and type.
+ * {@link #token} only builds a {@link Token}, with its lexeme and literal, when the {@link Parser} needs one. Once the
+ * parser {@link #release}s the tokens it is done with, only the part of the {@link Source} from the oldest token it
+ * still holds is kept.
+ */
 class Scanner {
 
-    private static final Map<String, TokenType> keywords;
-
-    static {
-        keywords = Map.ofEntries(
-            entry("and",    AND),
-            entry("class",  CLASS),
-            entry("else",   ELSE),
-            entry("false",  FALSE),
-            entry("for",    FOR),
-            entry("fun",    FUN),
-            entry("if",     IF),
-            entry("nil",    NIL),
-            entry("or",     OR),
-            entry("print",  PRINT),
-            entry("return", RETURN),
-            entry("super",  SUPER),
-            entry("this",   THIS),
-            entry("true",   TRUE),
-            entry("var",    VAR),
-            entry("while",  WHILE)
-        );
-    }
+    // the lexemes of types that always have the same one, filled in as they are seen
+    private static final String[] fixedLexemes = new String[TokenType.values().length];
 
-    private final @NonNull String source;
-    private final List<Token> tokens = new ArrayList<>();
+    private final Source source;
+    // a ring of packed tokens, two words each, that grows to hold the tokens scanned but not released
+    private long[] packed = new long[2 * 4];
+    // index of the first token not released
+    private int first = 0;
+    // number of tokens scanned
+    private int count = 0;
+    private boolean finished = false;
 
     private int start = 0;
     private int current = 0;
     private int line = 1;
 
+    Scanner(String source) {
+        this(Source.of(source));
+    }
+
+    Scanner(Source source) {
+        this.source = source;
+    }
+
+    /** Scans all tokens without releasing any, so a {@link Parser} can still read them afterwards. */
     List<Token> scanTokens() {
-        while (!isAtEnd()) {
+        var tokens = new ArrayList<Token>();
+        for (int index = first; ; index++) {
+            tokens.add(token(index));
+            if (type(index) == EOF) {
+                return tokens;
+            }
+        }
+    }
+
+    /** @return the type of the token at the index, which must not be past the EOF token */
+    TokenType type(int index) {
+        return TokenType.values()[(int) word(index, 1)];
+    }
+
+    int line(int index) {
+        return (int) (word(index, 1) >>> 32);
+    }
+
+    /** @return the token at the index, which must not be past the EOF token */
+    Token token(int index) {
+        var type = type(index);
+        var line = line(index);
+        var start = (int) (word(index, 0) >>> 32);
+        var end = start + (int) word(index, 0);
+        switch (type) {
+        case IDENTIFIER:
+            var symbol = Symbol.intern(source, start, end);
+            return new Token(type, symbol.getName(), null, line, symbol);
+        case NUMBER:
+            var digits = source.subSequence(start, end);
+            return new Token(type, digits, Double.parseDouble(digits), line);
+        case STRING:
+            var text = source.subSequence(start, end);
+            return new Token(type, text, unescape(text), line);
+        default:
+            var lexeme = fixedLexemes[type.ordinal()];
+            if (lexeme == null) {
+                lexeme = source.subSequence(start, end);
+                fixedLexemes[type.ordinal()] = lexeme;
+            }
+            return new Token(type, lexeme, null, line);
+        }
+    }
+
+    /** Drops the tokens before the index, which must not be asked for again. */
+    void release(int index) {
+        first = Math.max(first, Math.min(index, count));
+    }
+
+    /** @return a word of the packed token at the index, scanning up to it first */
+    private long word(int index, int word) {
+        if (index < first) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        while (index >= count) {
+            if (finished) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            scan();
+        }
+        return packed[(2 * index + word) & (packed.length - 1)];
+    }
+
+    /** Scans until a token has been added. */
+    private void scan() {
+        // keep the lexemes of the tokens the parser may still materialize
+        source.release(first < count ? (int) (word(first, 0) >>> 32) : current);
+        var scanned = count;
+        while (count == scanned) {
+            if (isAtEnd()) {
+                start = current;
+                finished = true;
+                addToken(EOF);
+                return;
+            }
             start = current;
             scanToken();
         }
-
-        tokens.add(new Token(EOF, "", null, line));
-        return tokens;
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return !source.has(current);
     }
 
     private void scanToken() {
@@ -165,9 +230,76 @@ class Scanner {
         while (isAlphaNumeric(peek())) {
             advance();
         }
-        var text = source.substring(start, current);
-        var type = keywords.getOrDefault(text, IDENTIFIER);
-        addToken(type);
+        addToken(identifierType());
+    }
+
+    /** @return the type of the keyword the identifier spells, told apart by its characters, or IDENTIFIER */
+    private TokenType identifierType() {
+        switch (source.charAt(start)) {
+        case 'a':
+            return keyword(1, "nd", AND);
+        case 'c':
+            return keyword(1, "lass", CLASS);
+        case 'e':
+            return keyword(1, "lse", ELSE);
+        case 'f':
+            if (current - start > 1) {
+                switch (source.charAt(start + 1)) {
+                case 'a':
+                    return keyword(2, "lse", FALSE);
+                case 'o':
+                    return keyword(2, "r", FOR);
+                case 'u':
+                    return keyword(2, "n", FUN);
+                default:
+                    break;
+                }
+            }
+            return IDENTIFIER;
+        case 'i':
+            return keyword(1, "f", IF);
+        case 'n':
+            return keyword(1, "il", NIL);
+        case 'o':
+            return keyword(1, "r", OR);
+        case 'p':
+            return keyword(1, "rint", PRINT);
+        case 'r':
+            return keyword(1, "eturn", RETURN);
+        case 's':
+            return keyword(1, "uper", SUPER);
+        case 't':
+            if (current - start > 1) {
+                switch (source.charAt(start + 1)) {
+                case 'h':
+                    return keyword(2, "is", THIS);
+                case 'r':
+                    return keyword(2, "ue", TRUE);
+                default:
+                    break;
+                }
+            }
+            return IDENTIFIER;
+        case 'v':
+            return keyword(1, "ar", VAR);
+        case 'w':
+            return keyword(1, "hile", WHILE);
+        default:
+            return IDENTIFIER;
+        }
+    }
+
+    /** @return the type if the identifier continues with the rest of the keyword from the offset and then ends */
+    private TokenType keyword(int offset, String rest, TokenType type) {
+        if (current - start != offset + rest.length()) {
+            return IDENTIFIER;
+        }
+        for (int i = 0; i < rest.length(); i++) {
+            if (source.charAt(start + offset + i) != rest.charAt(i)) {
+                return IDENTIFIER;
+            }
+        }
+        return type;
     }
 
     private void number() {
@@ -185,11 +317,11 @@ class Scanner {
             }
         }
 
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+        addToken(NUMBER);
     }
 
+    /** Checks a string literal; its value is only built by {@link #unescape} once its token is needed. */
     private void string() {
-        var value = new StringBuilder();
         var esc = false;
         while ((peek() != '"' || esc) && !isAtEnd()) {
             if (peek() == '\n') {
@@ -199,15 +331,10 @@ class Scanner {
             if (esc) {
                 switch (peek()) {
                     case 'n':
-                        advance();
-                        value.append('\n');
-                        break;
                     case '\n':
-                        advance(); // skip newlines
-                        break;
                     case '\\':
                     case '\"':
-                        value.append(advance());
+                        advance();
                         break;
                     default:
                         Lox.error(line, "Unexpected escape sequence.");
@@ -218,7 +345,7 @@ class Scanner {
                 advance(); // skip escape character
                 esc = true;
             } else {
-                value.append(advance());
+                advance();
             }
         }
         if (isAtEnd()) {
@@ -226,7 +353,26 @@ class Scanner {
             return;
         }
         advance();
-        addToken(STRING, value.toString());
+        addToken(STRING);
+    }
+
+    /** @return the value of a string literal that {@link #string} accepted */
+    private static String unescape(String lexeme) {
+        var value = new StringBuilder(lexeme.length() - 2);
+        for (int i = 1; i < lexeme.length() - 1; i++) {
+            var c = lexeme.charAt(i);
+            if (c == '\\') {
+                c = lexeme.charAt(++i);
+                if (c == 'n') {
+                    value.append('\n');
+                } else if (c != '\n') { // skip newlines
+                    value.append(c);
+                }
+            } else {
+                value.append(c);
+            }
+        }
+        return value.toString();
     }
 
     private void blockComment() {
@@ -273,18 +419,29 @@ class Scanner {
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length()) {
+        if (!source.has(current + 1)) {
             return '\0';
         }
         return source.charAt(current + 1);
     }
 
     private void addToken(TokenType type) {
-        addToken(type, null);
+        if (count - first == packed.length / 2) {
+            grow();
+        }
+        var mask = packed.length - 1;
+        packed[(2 * count) & mask] = (long) start << 32 | (current - start);
+        packed[(2 * count + 1) & mask] = (long) line << 32 | type.ordinal();
+        count++;
     }
 
-    private void addToken(TokenType type, Object literal) {
-        var text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+    private void grow() {
+        var mask = packed.length - 1;
+        var grown = new long[packed.length * 2];
+        for (int index = first; index < count; index++) {
+            grown[(2 * index) & (grown.length - 1)] = packed[(2 * index) & mask];
+            grown[(2 * index + 1) & (grown.length - 1)] = packed[(2 * index + 1) & mask];
+        }
+        packed = grown;
     }
 }
@@ -0,0 +1,48 @@
+package lox.lang;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * The field layout shared by all instances that acquired the same fields in the same order. Each class has a root
+ * shape without fields, and adding a field moves an instance along a transition to a child shape, so identical shapes
+ * imply the same class and the same slot for every field. {@link PropertyCache}s key on that identity.
+ */
+class Shape {
+    @Getter
+    private final LoxClass loxClass;
+    private final Map<Symbol, Integer> slots;
+    private final Map<Symbol, Shape> transitions = new IdentityHashMap<>();
+
+    Shape(LoxClass loxClass) {
+        this.loxClass = loxClass;
+        this.slots = Map.of();
+    }
+
+    private Shape(Shape parent, Symbol field) {
+        this.loxClass = parent.loxClass;
+        var slots = new IdentityHashMap<>(parent.slots);
+        slots.put(field, parent.size());
+        this.slots = slots;
+    }
+
+    /** @return the slot of the field, or -1 if instances of this shape do not have it */
+    int slotOf(Symbol field) {
+        return slots.getOrDefault(field, -1);
+    }
+
+    int size() {
+        return slots.size();
+    }
+
+    Shape withField(Symbol field) {
+        var next = transitions.get(field);
+        if (next == null) {
+            next = new Shape(this, field);
+            transitions.put(field, next);
+        }
+        return next;
+    }
+}
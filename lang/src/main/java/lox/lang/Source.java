@@ -0,0 +1,117 @@
+package lox.lang;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * Source text for the {@link Scanner}, decoded on demand. Only a window of characters is held: the scanner
+ * {@link #release}s everything before the token it starts, so scanning a large, e.g. memory-mapped, file needs about
+ * as much memory as its longest token. Indices are positions in the whole text.
+ */
+final class Source implements CharSequence {
+    private static final int WINDOW = 8192;
+
+    private final ByteBuffer bytes;
+    // null once all bytes are decoded
+    private CharsetDecoder decoder;
+    private boolean flushing = false;
+    private char[] window;
+    // position of window[0] in the text
+    private int offset = 0;
+    // position after the last decoded character
+    private int end;
+    // position before which characters may be dropped
+    private int released = 0;
+
+    private Source(ByteBuffer bytes, CharsetDecoder decoder, char[] window, int end) {
+        this.bytes = bytes;
+        this.decoder = decoder;
+        this.window = window;
+        this.end = end;
+    }
+
+    static Source of(String text) {
+        return new Source(null, null, text.toCharArray(), text.length());
+    }
+
+    /** Decodes the bytes, replacing malformed input like {@link String#String(byte[], Charset)} does. */
+    static Source of(ByteBuffer bytes, Charset charset) {
+        var decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        return new Source(bytes, decoder, new char[WINDOW], 0);
+    }
+
+    /** @return whether the text extends to the index */
+    boolean has(int index) {
+        while (index >= end && decoder != null) {
+            decode();
+        }
+        return index < end;
+    }
+
+    /** Allows the characters before the index to be dropped; they must not be asked for again. */
+    void release(int index) {
+        released = index;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < offset || !has(index)) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return window[index - offset];
+    }
+
+    @Override
+    public String subSequence(int start, int end) {
+        if (start < offset || !has(end - 1)) {
+            throw new IndexOutOfBoundsException(start);
+        }
+        return new String(window, start - offset, end - start);
+    }
+
+    /** Decodes the whole text to find its length, so the scanner sticks to {@link #has}. */
+    @Override
+    public int length() {
+        while (decoder != null) {
+            decode();
+        }
+        return end;
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(offset, length());
+    }
+
+    private void decode() {
+        // a surrogate pair needs two free characters
+        if (window.length - (end - offset) < 2) {
+            makeRoom();
+        }
+        var out = CharBuffer.wrap(window, end - offset, window.length - (end - offset));
+        if (!flushing) {
+            // all input consumed once it underflows
+            flushing = decoder.decode(bytes, out, true).isUnderflow();
+        }
+        if (flushing && decoder.flush(out).isUnderflow()) {
+            decoder = null;
+        }
+        end = offset + out.position();
+    }
+
+    private void makeRoom() {
+        var drop = released - offset;
+        if (drop > window.length / 2) {
+            System.arraycopy(window, drop, window, 0, end - released);
+            offset = released;
+        } else {
+            window = Arrays.copyOf(window, window.length * 2);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package lox.lang;
+
+import lombok.Getter;
+
+/**
+ * An interned identifier. The {@link Scanner} looks identifiers up in a global table straight from the source text, so
+ * each distinct name is allocated once, and every {@link Token} for it carries the same symbol. Symbols are numbered
+ * from zero in the order they are first seen, which lets runtime tables like {@link Globals} index arrays by
+ * {@link #getId()} and compare names by identity.
+ * <p>
+ * The table never shrinks on its own: it keeps every distinct name scanned in the JVM, which in a REPL session are the
+ * names later lines may refer to anyway. Programs that share nothing, like the runs of {@code jlox bench}, start from
+ * an empty table with {@link #reset}.
+ */
+@Getter
+final class Symbol {
+    private static Symbol[] table = new Symbol[256];
+    private static int count = 0;
+
+    private final String name;
+    private final int id;
+
+    private Symbol(String name, int id) {
+        this.name = name;
+        this.id = id;
+    }
+
+    static Symbol intern(String name) {
+        return intern(name, 0, name.length());
+    }
+
+    /** @return the symbol for the characters of the source from start to end, creating it if it is new */
+    static synchronized Symbol intern(CharSequence source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+
+        var mask = table.length - 1;
+        var index = spread(hash) & mask;
+        for (var symbol = table[index]; symbol != null; symbol = table[index]) {
+            if (matches(symbol.name, source, start, end)) {
+                return symbol;
+            }
+            index = (index + 1) & mask;
+        }
+
+        var symbol = new Symbol(source.subSequence(start, end).toString(), count++);
+        table[index] = symbol;
+        if (count * 2 > table.length) {
+            grow();
+        }
+        return symbol;
+    }
+
+    /**
+     * Forgets every symbol, so ids start from zero again. Nothing holding a symbol from before may be used afterwards,
+     * since new symbols reuse the ids and names of the old ones without being identical to them.
+     */
+    static synchronized void reset() {
+        table = new Symbol[256];
+        count = 0;
+    }
+
+    /** @return how many symbols there are, one more than the highest id */
+    static synchronized int count() {
+        return count;
+    }
+
+    private static boolean matches(String name, CharSequence source, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != source.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static void grow() {
+        var old = table;
+        table = new Symbol[old.length * 2];
+        var mask = table.length - 1;
+        for (var symbol : old) {
+            if (symbol != null) {
+                // the same hash as String#hashCode, which intern computes over the source
+                var index = spread(symbol.name.hashCode()) & mask;
+                while (table[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                table[index] = symbol;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,18 @@
+package lox.lang;
+
+import java.util.List;
+
+import lombok.Value;
+
+/**
+ * A call in tail position. Instead of making it, the returning function hands it back to its caller, where
+ * {@link Interpreter#runTailCalls} makes it, so tail-recursive functions run in constant Java stack.
+ */
+@Value
+class TailCall {
+    // the receiver for a method call, see Interpreter#invoke; null for other calls
+    Object object;
+    Object callee;
+    List<Object> arguments;
+    Token paren;
+}
@@ -1,14 +1,22 @@
 package lox.lang;
 
+import lombok.AllArgsConstructor;
 import lombok.NonNull;
 import lombok.Value;
 
 @Value
-class Token {
+@AllArgsConstructor
+public class Token {
     @NonNull TokenType type;
     @NonNull String lexeme;
     Object literal;
     int line;
+    // the interned lexeme of identifiers, null for other tokens
+    Symbol symbol;
+
+    public Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, lexeme, literal, line, type == TokenType.IDENTIFIER ? Symbol.intern(lexeme) : null);
+    }
 
     public String toString() {
         return type + " " + lexeme + " " + literal;
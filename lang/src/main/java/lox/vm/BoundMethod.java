@@ -0,0 +1,16 @@
+package lox.vm;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+class BoundMethod {
+    private final VmInstance receiver;
+    private final Closure method;
+
+    @Override
+    public String toString() {
+        return method.toString();
+    }
+}
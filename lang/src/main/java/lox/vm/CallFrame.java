@@ -0,0 +1,9 @@
+package lox.vm;
+
+/** An active call: the closure being run, its instruction pointer and the stack index of its slot 0. */
+class CallFrame {
+    Closure closure;
+    int ip;
+    int base;
+    Object completion;
+}
@@ -0,0 +1,61 @@
+package lox.vm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import lombok.Getter;
+
+/** A function's bytecode, with the source line of every byte and its constant pool. */
+@Getter
+class Chunk {
+    private byte[] code = new byte[64];
+    private int[] lines = new int[64];
+    private int count = 0;
+
+    private Object[] constants = new Object[8];
+    private int constantCount = 0;
+
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    // by the index of their name constant, filled in by the Vm as it runs the instructions that use them
+    private Global[] globals;
+
+    void write(int b, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = (byte) b;
+        lines[count] = line;
+        count++;
+    }
+
+    void patch(int offset, int b) {
+        code[offset] = (byte) b;
+    }
+
+    /** @return the globals the chunk has looked up so far, by the index of their name in the constant pool */
+    Global[] getGlobals() {
+        if (globals == null) {
+            globals = new Global[constantCount];
+        }
+        return globals;
+    }
+
+    /** @return the index of the constant, reusing an existing entry for equal strings and numbers */
+    int addConstant(Object value) {
+        var shareable = value instanceof String || value instanceof Double;
+        if (shareable && constantIndex.containsKey(value)) {
+            return constantIndex.get(value);
+        }
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount] = value;
+        if (shareable) {
+            constantIndex.put(value, constantCount);
+        }
+        return constantCount++;
+    }
+}
@@ -0,0 +1,19 @@
+package lox.vm;
+
+import lombok.Getter;
+
+@Getter
+class Closure {
+    private final VmFunction function;
+    private final Upvalue[] upvalues;
+
+    Closure(VmFunction function) {
+        this.function = function;
+        this.upvalues = new Upvalue[function.getUpvalueCount()];
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
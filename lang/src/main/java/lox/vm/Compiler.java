@@ -0,0 +1,670 @@
+package lox.vm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lox.lang.Expr;
+import lox.lang.Lox;
+import lox.lang.Stmt;
+import lox.lang.Token;
+import lox.lang.TokenType;
+
+/**
+ * Compiles a resolved AST into bytecode for the {@link Vm}. Locals live in stack slots and variables captured by
+ * closures become upvalues, so the compiler does its own scope bookkeeping; the resolver has already reported static
+ * errors by the time this runs.
+ */
+public class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_UPVALUES = 256;
+    // top-level code moves on to a new function past this many constants, leaving room for the next statement's names
+    private static final int SCRIPT_CONSTANTS = 0xf000;
+
+    private FunctionState current;
+    private int line = 1;
+    private boolean hadError = false;
+
+    /**
+     * @return the top-level code of the script, to run in order, or null if compilation failed. It takes more than one
+     *         function once its constants outgrow the indexes instructions can hold; globals are shared by name, so the
+     *         split is not visible to the script.
+     */
+    public static List<VmFunction> compile(List<Stmt> statements) {
+        var compiler = new Compiler();
+        var functions = new ArrayList<VmFunction>();
+        compiler.current = new FunctionState(null, new VmFunction("script", 0), FunctionType.SCRIPT);
+        for (var statement : statements) {
+            if (compiler.current.chunk().getConstantCount() > SCRIPT_CONSTANTS) {
+                functions.add(compiler.endFunction());
+                compiler.current = new FunctionState(null, new VmFunction("script", 0), FunctionType.SCRIPT);
+            }
+            compiler.compile(statement);
+        }
+        functions.add(compiler.endFunction());
+        return compiler.hadError ? null : functions;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.getValue());
+        setVariable(expr.getName());
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.getLeft());
+        compile(expr.getRight());
+        line = expr.getOperator().getLine();
+        switch (expr.getOperator().getType()) {
+            case GREATER:
+                emit(OpCode.GREATER);
+                break;
+            case GREATER_EQUAL:
+                emit(OpCode.GREATER_EQUAL);
+                break;
+            case LESS:
+                emit(OpCode.LESS);
+                break;
+            case LESS_EQUAL:
+                emit(OpCode.LESS_EQUAL);
+                break;
+            case BANG_EQUAL:
+                emit(OpCode.NOT_EQUAL);
+                break;
+            case EQUAL_EQUAL:
+                emit(OpCode.EQUAL);
+                break;
+            case MINUS:
+                emit(OpCode.SUBTRACT);
+                break;
+            case SLASH:
+                emit(OpCode.DIVIDE);
+                break;
+            case STAR:
+                emit(OpCode.MULTIPLY);
+                break;
+            case PLUS:
+                emit(OpCode.ADD);
+                break;
+            default:
+                throw new UnsupportedOperationException("unsupported operation: " + expr.getOperator());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compile(expr.getCallee());
+        for (var argument : expr.getArguments()) {
+            compile(argument);
+        }
+        line = expr.getParen().getLine();
+        emit(OpCode.CALL, expr.getArguments().size());
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.getObject());
+        line = expr.getName().getLine();
+        emitShort(OpCode.GET_PROPERTY, identifierConstant(expr.getName()));
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitLambdaExpr(Expr.Lambda expr) {
+        function(FunctionType.LAMBDA, "lambda", expr.getParams(), expr.getBody());
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        var value = expr.getValue();
+        if (value == null) {
+            emit(OpCode.NIL);
+        } else if (Boolean.TRUE.equals(value)) {
+            emit(OpCode.TRUE);
+        } else if (Boolean.FALSE.equals(value)) {
+            emit(OpCode.FALSE);
+        } else {
+            emitConstant(value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.getLeft());
+        line = expr.getOperator().getLine();
+        if (expr.getOperator().getType() == TokenType.AND) {
+            var endJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emit(OpCode.POP);
+            compile(expr.getRight());
+            patchJump(endJump);
+        } else if (expr.getOperator().getType() == TokenType.OR) {
+            var elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            var endJump = emitJump(OpCode.JUMP);
+            patchJump(elseJump);
+            emit(OpCode.POP);
+            compile(expr.getRight());
+            patchJump(endJump);
+        } else {
+            throw new UnsupportedOperationException("unsupported operation: " + expr.getOperator());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.getObject());
+        compile(expr.getValue());
+        line = expr.getName().getLine();
+        emitShort(OpCode.SET_PROPERTY, identifierConstant(expr.getName()));
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        compile(expr.getLeft());
+        line = expr.getLeftOp().getLine();
+        var elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(expr.getMiddle());
+        var endJump = emitJump(OpCode.JUMP);
+        patchJump(elseJump);
+        emit(OpCode.POP);
+        compile(expr.getRight());
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        getVariable(expr.getKeyword());
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.getRight());
+        line = expr.getOperator().getLine();
+        switch (expr.getOperator().getType()) {
+            case MINUS:
+                emit(OpCode.NEGATE);
+                break;
+            case BANG:
+                emit(OpCode.NOT);
+                break;
+            default:
+                throw new UnsupportedOperationException("unsupported operation: " + expr.getOperator());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        getVariable(expr.getName());
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (var statement : stmt.getStatements()) {
+            compile(statement);
+        }
+        if (stmt.getStatements().isEmpty()) {
+            complete(OpCode.COMPLETE_NIL);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        var name = stmt.getName();
+        line = name.getLine();
+        var nameConstant = identifierConstant(name);
+        var params = stmt.getParams().stream().map(Token::getLexeme).toArray(String[]::new);
+        declareVariable(name);
+        emitShort(OpCode.CLASS, nameConstant);
+        emitShort(makeConstant(params));
+        defineVariable(nameConstant);
+
+        // keep the class on the stack while its methods are attached
+        getVariable(name);
+        if (!stmt.getInit().isEmpty()) {
+            function(FunctionType.INITIALIZER, name.getLexeme(), List.of(), stmt.getInit());
+            emit(OpCode.INITIALIZER);
+        }
+        for (var method : stmt.getMethods()) {
+            function(FunctionType.METHOD, method.getName().getLexeme(), method.getParams(), method.getBody());
+            emitShort(OpCode.METHOD, identifierConstant(method.getName()));
+        }
+        emit(OpCode.POP);
+        complete(OpCode.COMPLETE_NIL);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.getExpression());
+        emit(current.type.completes ? OpCode.COMPLETE : OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        var name = stmt.getName();
+        line = name.getLine();
+        var nameConstant = identifierConstant(name);
+        declareVariable(name);
+        // a local function may refer to itself
+        markInitialized();
+        function(FunctionType.FUNCTION, name.getLexeme(), stmt.getParams(), stmt.getBody());
+        complete(OpCode.COMPLETE_KEEP);
+        defineVariable(nameConstant);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.getCondition());
+        var thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.getThenBranch());
+        var elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        emit(OpCode.POP);
+        if (stmt.getElseBranch() != null) {
+            compile(stmt.getElseBranch());
+        } else {
+            complete(OpCode.COMPLETE_NIL);
+        }
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.getExpression());
+        emit(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.getKeyword().getLine();
+        if (current.type == FunctionType.INITIALIZER) {
+            if (stmt.getValue() != null) {
+                compile(stmt.getValue());
+                emit(OpCode.POP);
+            }
+            emit(OpCode.GET_LOCAL, 0);
+        } else if (stmt.getTailCall()) {
+            var call = (Expr.Call) stmt.getValue();
+            compile(call.getCallee());
+            for (var argument : call.getArguments()) {
+                compile(argument);
+            }
+            line = call.getParen().getLine();
+            emit(OpCode.TAIL_CALL, call.getArguments().size());
+        } else if (stmt.getValue() != null) {
+            compile(stmt.getValue());
+        } else {
+            emit(OpCode.NIL);
+        }
+        emit(OpCode.RETURN);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        var name = stmt.getName();
+        line = name.getLine();
+        var nameConstant = identifierConstant(name);
+        declareVariable(name);
+        if (stmt.getInitializer() != null) {
+            compile(stmt.getInitializer());
+            complete(OpCode.COMPLETE_KEEP);
+            defineVariable(nameConstant);
+        } else if (current.scopeDepth > 0) {
+            emit(OpCode.NIL);
+            complete(OpCode.COMPLETE_NIL);
+            markInitialized();
+        } else {
+            emitShort(OpCode.DECLARE_GLOBAL, nameConstant);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        complete(OpCode.COMPLETE_NIL);
+        var loopStart = current.chunk().getCount();
+        compile(stmt.getCondition());
+        var exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.getBody());
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void function(FunctionType type, String name, List<Token> params, List<Stmt> body) {
+        var function = new VmFunction(name, params.size());
+        current = new FunctionState(current, function, type);
+        beginScope();
+        for (var param : params) {
+            declareVariable(param);
+            markInitialized();
+        }
+        for (var statement : body) {
+            compile(statement);
+        }
+
+        var state = current;
+        endFunction();
+
+        emitShort(OpCode.CLOSURE, makeConstant(function));
+        for (var upvalue : state.upvalues) {
+            emit(upvalue.local ? 1 : 0);
+            emit(upvalue.index);
+        }
+    }
+
+    private VmFunction endFunction() {
+        switch (current.type) {
+            case SCRIPT:
+                emit(OpCode.NIL);
+                break;
+            case INITIALIZER:
+                emit(OpCode.GET_LOCAL, 0);
+                break;
+            default:
+                emit(OpCode.COMPLETION);
+                break;
+        }
+        emit(OpCode.RETURN);
+
+        var function = current.function;
+        function.setUpvalueCount(current.upvalues.size());
+        current = current.enclosing;
+        return function;
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+        var locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            var local = locals.remove(locals.size() - 1);
+            emit(local.captured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+        }
+    }
+
+    private void declareVariable(Token name) {
+        if (current.scopeDepth == 0) {
+            return;
+        }
+        if (current.locals.size() == MAX_LOCALS) {
+            error(name, "Too many local variables in function.");
+            return;
+        }
+        current.locals.add(new Local(name.getLexeme(), -1));
+    }
+
+    private void markInitialized() {
+        if (current.scopeDepth == 0) {
+            return;
+        }
+        current.locals.get(current.locals.size() - 1).depth = current.scopeDepth;
+    }
+
+    private void defineVariable(int nameConstant) {
+        if (current.scopeDepth > 0) {
+            // the value is already in the local's stack slot
+            markInitialized();
+            return;
+        }
+        emitShort(OpCode.DEFINE_GLOBAL, nameConstant);
+    }
+
+    private void getVariable(Token name) {
+        line = name.getLine();
+        var slot = resolveLocal(current, name.getLexeme());
+        if (slot >= 0) {
+            emit(OpCode.GET_LOCAL, slot);
+            return;
+        }
+        var index = resolveUpvalue(current, name);
+        if (index >= 0) {
+            emit(OpCode.GET_UPVALUE, index);
+            return;
+        }
+        emitShort(OpCode.GET_GLOBAL, identifierConstant(name));
+    }
+
+    private void setVariable(Token name) {
+        line = name.getLine();
+        var slot = resolveLocal(current, name.getLexeme());
+        if (slot >= 0) {
+            emit(OpCode.SET_LOCAL, slot);
+            return;
+        }
+        var index = resolveUpvalue(current, name);
+        if (index >= 0) {
+            emit(OpCode.SET_UPVALUE, index);
+            return;
+        }
+        emitShort(OpCode.SET_GLOBAL, identifierConstant(name));
+    }
+
+    private static int resolveLocal(FunctionState state, String name) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            if (state.locals.get(i).name.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, Token name) {
+        if (state.enclosing == null) {
+            return -1;
+        }
+
+        var local = resolveLocal(state.enclosing, name.getLexeme());
+        if (local >= 0) {
+            state.enclosing.locals.get(local).captured = true;
+            return addUpvalue(state, name, local, true);
+        }
+
+        var upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue >= 0) {
+            return addUpvalue(state, name, upvalue, false);
+        }
+
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, Token name, int index, boolean local) {
+        var upvalues = state.upvalues;
+        for (int i = 0; i < upvalues.size(); i++) {
+            var upvalue = upvalues.get(i);
+            if (upvalue.index == index && upvalue.local == local) {
+                return i;
+            }
+        }
+        if (upvalues.size() == MAX_UPVALUES) {
+            error(name, "Too many closure variables in function.");
+            return 0;
+        }
+        upvalues.add(new UpvalueRef(index, local));
+        return upvalues.size() - 1;
+    }
+
+    private int identifierConstant(Token name) {
+        return makeConstant(name.getLexeme());
+    }
+
+    private int makeConstant(Object value) {
+        var index = current.chunk().addConstant(value);
+        if (index > 0xffff) {
+            error("Too many constants in one chunk.");
+            return 0;
+        }
+        return index;
+    }
+
+    /** Loads a constant, with a u24 operand once the pool has outgrown u16 indexes. */
+    private void emitConstant(Object value) {
+        var index = current.chunk().addConstant(value);
+        if (index > 0xffffff) {
+            error("Too many constants in one chunk.");
+        } else if (index > 0xffff) {
+            emit(OpCode.CONSTANT_LONG);
+            emit(index >> 16);
+            emitShort(index & 0xffff);
+        } else {
+            emitShort(OpCode.CONSTANT, index);
+        }
+    }
+
+    private void complete(byte op) {
+        if (current.type.completes) {
+            emit(op);
+        }
+    }
+
+    private void emit(int b) {
+        current.chunk().write(b, line);
+    }
+
+    private void emit(byte op, int operand) {
+        emit(op);
+        emit(operand);
+    }
+
+    private void emitShort(int value) {
+        emit((value >> 8) & 0xff);
+        emit(value & 0xff);
+    }
+
+    private void emitShort(byte op, int operand) {
+        emit(op);
+        emitShort(operand);
+    }
+
+    private int emitJump(byte op) {
+        emit(op);
+        emitShort(0xffff);
+        return current.chunk().getCount() - 2;
+    }
+
+    private void patchJump(int offset) {
+        var jump = current.chunk().getCount() - offset - 2;
+        if (jump > 0xffff) {
+            error("Too much code to jump over.");
+        }
+        current.chunk().patch(offset, (jump >> 8) & 0xff);
+        current.chunk().patch(offset + 1, jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart) {
+        emit(OpCode.LOOP);
+        var offset = current.chunk().getCount() - loopStart + 2;
+        if (offset > 0xffff) {
+            error("Loop body too large.");
+        }
+        emitShort(offset);
+    }
+
+    private void error(Token token, String message) {
+        Lox.error(token, message);
+        hadError = true;
+    }
+
+    private void error(String message) {
+        Lox.error(line, message);
+        hadError = true;
+    }
+
+    private enum FunctionType {
+        SCRIPT(false),
+        FUNCTION(true),
+        LAMBDA(true),
+        METHOD(true),
+        INITIALIZER(false);
+
+        // whether the function yields its last statement's value when it runs off the end
+        private final boolean completes;
+
+        FunctionType(boolean completes) {
+            this.completes = completes;
+        }
+    }
+
+    private static class FunctionState {
+        private final FunctionState enclosing;
+        private final VmFunction function;
+        private final FunctionType type;
+        private final List<Local> locals = new ArrayList<>();
+        private final List<UpvalueRef> upvalues = new ArrayList<>();
+        private int scopeDepth = 0;
+
+        FunctionState(FunctionState enclosing, VmFunction function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+
+            // slot 0 holds the receiver in methods and the callee otherwise
+            var isMethod = type == FunctionType.METHOD || type == FunctionType.INITIALIZER;
+            locals.add(new Local(isMethod ? "this" : "", 0));
+        }
+
+        Chunk chunk() {
+            return function.getChunk();
+        }
+    }
+
+    private static class Local {
+        private final String name;
+        private int depth;
+        private boolean captured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class UpvalueRef {
+        private final int index;
+        private final boolean local;
+
+        UpvalueRef(int index, boolean local) {
+            this.index = index;
+            this.local = local;
+        }
+    }
+}
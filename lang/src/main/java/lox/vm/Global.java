@@ -0,0 +1,12 @@
+package lox.vm;
+
+/**
+ * A global variable. Instructions look it up by name once and then keep referring to it, see {@link Chunk#getGlobals}.
+ */
+class Global {
+    Object value;
+
+    Global(Object value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,18 @@
+package lox.vm;
+
+import java.util.function.Function;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+class NativeFunction {
+    private final int arity;
+    private final Function<Object[], Object> body;
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
@@ -0,0 +1,60 @@
+package lox.vm;
+
+/**
+ * Instruction set of the {@link Vm}. Operands follow the opcode inline: {@code u8} operands are one byte, {@code u16}
+ * operands are two bytes and {@code u24} operands three, big-endian.
+ */
+final class OpCode {
+    private OpCode() {
+    }
+
+    static final byte CONSTANT = 0;         // u16 constant
+    static final byte NIL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte POP = 4;
+    static final byte GET_LOCAL = 5;        // u8 slot
+    static final byte SET_LOCAL = 6;        // u8 slot
+    static final byte GET_GLOBAL = 7;       // u16 name
+    static final byte DEFINE_GLOBAL = 8;    // u16 name
+    static final byte DECLARE_GLOBAL = 9;   // u16 name
+    static final byte SET_GLOBAL = 10;      // u16 name
+    static final byte GET_UPVALUE = 11;     // u8 index
+    static final byte SET_UPVALUE = 12;     // u8 index
+    static final byte GET_PROPERTY = 13;    // u16 name
+    static final byte SET_PROPERTY = 14;    // u16 name
+    static final byte EQUAL = 15;
+    static final byte NOT_EQUAL = 16;
+    static final byte GREATER = 17;
+    static final byte GREATER_EQUAL = 18;
+    static final byte LESS = 19;
+    static final byte LESS_EQUAL = 20;
+    static final byte ADD = 21;
+    static final byte SUBTRACT = 22;
+    static final byte MULTIPLY = 23;
+    static final byte DIVIDE = 24;
+    static final byte NOT = 25;
+    static final byte NEGATE = 26;
+    static final byte PRINT = 27;
+    static final byte JUMP = 28;            // u16 forward offset
+    static final byte JUMP_IF_FALSE = 29;   // u16 forward offset
+    static final byte LOOP = 30;            // u16 backward offset
+    static final byte CALL = 31;            // u8 argument count
+    static final byte CLOSURE = 32;         // u16 function, then (u8 isLocal, u8 index) per upvalue
+    static final byte CLOSE_UPVALUE = 33;
+    static final byte RETURN = 34;
+    static final byte CLASS = 35;           // u16 name, u16 parameter names
+    static final byte METHOD = 36;          // u16 name
+    static final byte INITIALIZER = 37;
+
+    // completion value, which a function without an explicit return yields
+    static final byte COMPLETE = 38;
+    static final byte COMPLETE_KEEP = 39;
+    static final byte COMPLETE_NIL = 40;
+    static final byte COMPLETION = 41;
+
+    static final byte TAIL_CALL = 42;       // u8 argument count, then RETURN for callees that need a new frame
+
+    // for literals past the first 65536 constants of a chunk; names and functions still need a u16 index
+    static final byte CONSTANT_LONG = 43;   // u24 constant
+}
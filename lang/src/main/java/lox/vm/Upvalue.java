@@ -0,0 +1,24 @@
+package lox.vm;
+
+/**
+ * A variable captured by a closure. While open it refers to a slot on the VM stack; once the slot goes out of scope
+ * the value is moved into the upvalue itself.
+ */
+class Upvalue {
+    int slot;
+    Object closed;
+    Upvalue next;
+
+    Upvalue(int slot) {
+        this.slot = slot;
+    }
+
+    boolean isOpen() {
+        return slot >= 0;
+    }
+
+    void close(Object[] stack) {
+        closed = stack[slot];
+        slot = -1;
+    }
+}
@@ -0,0 +1,583 @@
+package lox.vm;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import lox.lang.Stmt;
+
+/**
+ * A stack-based virtual machine for the bytecode produced by the {@link Compiler}. Globals persist across calls to
+ * {@link #interpret(List)}, so one instance can back a REPL session.
+ * <p>
+ * None of the interpreter's machinery applies here: there are no compiled functions, call-site or property caches,
+ * memos, metrics or profiles, so jlox rejects the flags asking for them together with {@code --vm}.
+ */
+public class Vm {
+    private static final int FRAMES_MAX = 1024;
+    private static final int STACK_MAX = FRAMES_MAX * 256;
+
+    private static final Object UNDEFINED = new Object();
+    private static final Object UNDECLARED = new Object();
+    private static final long NANO_ORIGIN = System.nanoTime();
+
+    private final Object[] stack = new Object[STACK_MAX];
+    private int sp = 0;
+
+    private final CallFrame[] frames = new CallFrame[FRAMES_MAX];
+    private int frameCount = 0;
+
+    private final Map<String, Global> globals = new HashMap<>();
+    private Upvalue openUpvalues;
+
+    public Vm() {
+        for (int i = 0; i < FRAMES_MAX; i++) {
+            frames[i] = new CallFrame();
+        }
+
+        // globals
+        globals.put("clock", new Global(new NativeFunction(0, args -> System.currentTimeMillis() / 1000d)));
+        globals.put("nanoClock",
+                new Global(new NativeFunction(0, args -> (double) (System.nanoTime() - NANO_ORIGIN))));
+    }
+
+    public InterpretResult interpret(List<Stmt> statements) {
+        var functions = Compiler.compile(statements);
+        if (functions == null) {
+            return InterpretResult.COMPILE_ERROR;
+        }
+
+        for (var function : functions) {
+            var closure = new Closure(function);
+            push(closure);
+            call(closure, 0);
+            var result = run();
+            if (result != InterpretResult.OK) {
+                return result;
+            }
+        }
+        return InterpretResult.OK;
+    }
+
+    private InterpretResult run() {
+        var frame = frames[frameCount - 1];
+        var chunk = frame.closure.getFunction().getChunk();
+        var code = chunk.getCode();
+        var constants = chunk.getConstants();
+        var cells = chunk.getGlobals();
+        var base = frame.base;
+        var ip = frame.ip;
+        var stack = this.stack;
+
+        try {
+            for (;;) {
+                switch (code[ip++]) {
+                    case OpCode.CONSTANT:
+                        stack[sp++] = constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        break;
+                    case OpCode.CONSTANT_LONG:
+                        stack[sp++] = constants[((code[ip] & 0xff) << 16) | ((code[ip + 1] & 0xff) << 8)
+                                | (code[ip + 2] & 0xff)];
+                        ip += 3;
+                        break;
+                    case OpCode.NIL:
+                        stack[sp++] = null;
+                        break;
+                    case OpCode.TRUE:
+                        stack[sp++] = Boolean.TRUE;
+                        break;
+                    case OpCode.FALSE:
+                        stack[sp++] = Boolean.FALSE;
+                        break;
+                    case OpCode.POP:
+                        sp--;
+                        break;
+                    case OpCode.GET_LOCAL:
+                        stack[sp++] = stack[base + (code[ip++] & 0xff)];
+                        break;
+                    case OpCode.SET_LOCAL:
+                        stack[base + (code[ip++] & 0xff)] = stack[sp - 1];
+                        break;
+                    case OpCode.GET_GLOBAL: {
+                        var index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        var global = cells[index];
+                        if (global == null) {
+                            global = global(cells, constants, index);
+                        }
+                        var value = global.value;
+                        if (value == UNDEFINED || value == UNDECLARED) {
+                            throw new VmError((value == UNDEFINED ? "Undefined" : "Undeclared") + " variable '"
+                                    + constants[index] + "'.");
+                        }
+                        stack[sp++] = value;
+                        break;
+                    }
+                    case OpCode.DEFINE_GLOBAL: {
+                        var index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        global(cells, constants, index).value = stack[--sp];
+                        break;
+                    }
+                    case OpCode.DECLARE_GLOBAL: {
+                        var index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        global(cells, constants, index).value = UNDEFINED;
+                        break;
+                    }
+                    case OpCode.SET_GLOBAL: {
+                        var index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        var global = global(cells, constants, index);
+                        if (global.value == UNDECLARED) {
+                            throw new VmError("Undeclared variable '" + constants[index] + "'.");
+                        }
+                        global.value = stack[sp - 1];
+                        break;
+                    }
+                    case OpCode.GET_UPVALUE: {
+                        var upvalue = frame.closure.getUpvalues()[code[ip++] & 0xff];
+                        stack[sp++] = upvalue.isOpen() ? stack[upvalue.slot] : upvalue.closed;
+                        break;
+                    }
+                    case OpCode.SET_UPVALUE: {
+                        var upvalue = frame.closure.getUpvalues()[code[ip++] & 0xff];
+                        if (upvalue.isOpen()) {
+                            stack[upvalue.slot] = stack[sp - 1];
+                        } else {
+                            upvalue.closed = stack[sp - 1];
+                        }
+                        break;
+                    }
+                    case OpCode.GET_PROPERTY: {
+                        var name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        stack[sp - 1] = getProperty(stack[sp - 1], name);
+                        break;
+                    }
+                    case OpCode.SET_PROPERTY: {
+                        var name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        var object = stack[sp - 2];
+                        if (!(object instanceof VmInstance)) {
+                            throw new VmError("Only instances have fields.");
+                        }
+                        var value = stack[--sp];
+                        ((VmInstance) object).getFields().put(name, value);
+                        stack[sp - 1] = value;
+                        break;
+                    }
+                    case OpCode.EQUAL: {
+                        var right = stack[--sp];
+                        stack[sp - 1] = isEqual(stack[sp - 1], right);
+                        break;
+                    }
+                    case OpCode.NOT_EQUAL: {
+                        var right = stack[--sp];
+                        stack[sp - 1] = !isEqual(stack[sp - 1], right);
+                        break;
+                    }
+                    case OpCode.GREATER: {
+                        var right = stack[--sp];
+                        var left = stack[sp - 1];
+                        checkNumberOperands(left, right);
+                        stack[sp - 1] = (double) left > (double) right;
+                        break;
+                    }
+                    case OpCode.GREATER_EQUAL: {
+                        var right = stack[--sp];
+                        var left = stack[sp - 1];
+                        checkNumberOperands(left, right);
+                        stack[sp - 1] = (double) left >= (double) right;
+                        break;
+                    }
+                    case OpCode.LESS: {
+                        var right = stack[--sp];
+                        var left = stack[sp - 1];
+                        checkNumberOperands(left, right);
+                        stack[sp - 1] = (double) left < (double) right;
+                        break;
+                    }
+                    case OpCode.LESS_EQUAL: {
+                        var right = stack[--sp];
+                        var left = stack[sp - 1];
+                        checkNumberOperands(left, right);
+                        stack[sp - 1] = (double) left <= (double) right;
+                        break;
+                    }
+                    case OpCode.ADD: {
+                        var right = stack[--sp];
+                        var left = stack[sp - 1];
+                        if (left instanceof Double && right instanceof Double) {
+                            stack[sp - 1] = (double) left + (double) right;
+                        } else if (left instanceof String || right instanceof String) {
+                            stack[sp - 1] = stringify(left) + stringify(right);
+                        } else {
+                            throw new VmError("No operation applicable for operands.");
+                        }
+                        break;
+                    }
+                    case OpCode.SUBTRACT: {
+                        var right = stack[--sp];
+                        var left = stack[sp - 1];
+                        checkNumberOperands(left, right);
+                        stack[sp - 1] = (double) left - (double) right;
+                        break;
+                    }
+                    case OpCode.MULTIPLY: {
+                        var right = stack[--sp];
+                        var left = stack[sp - 1];
+                        checkNumberOperands(left, right);
+                        stack[sp - 1] = (double) left * (double) right;
+                        break;
+                    }
+                    case OpCode.DIVIDE: {
+                        var right = stack[--sp];
+                        var left = stack[sp - 1];
+                        checkNumberOperands(left, right);
+                        stack[sp - 1] = (double) left / (double) right;
+                        break;
+                    }
+                    case OpCode.NOT:
+                        stack[sp - 1] = !isTruthy(stack[sp - 1]);
+                        break;
+                    case OpCode.NEGATE: {
+                        var operand = stack[sp - 1];
+                        checkNumberOperand(operand);
+                        stack[sp - 1] = -(double) operand;
+                        break;
+                    }
+                    case OpCode.PRINT: {
+                        var value = stack[--sp];
+                        System.out.println(stringify(value));
+                        frame.completion = value;
+                        break;
+                    }
+                    case OpCode.JUMP:
+                        ip += ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        break;
+                    case OpCode.JUMP_IF_FALSE:
+                        if (!isTruthy(stack[sp - 1])) {
+                            ip += ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        }
+                        ip += 2;
+                        break;
+                    case OpCode.LOOP:
+                        ip += 2;
+                        ip -= ((code[ip - 2] & 0xff) << 8) | (code[ip - 1] & 0xff);
+                        break;
+                    case OpCode.CALL: {
+                        var argCount = code[ip++] & 0xff;
+                        frame.ip = ip;
+                        if (callValue(stack[sp - 1 - argCount], argCount)) {
+                            frame = frames[frameCount - 1];
+                            chunk = frame.closure.getFunction().getChunk();
+                            code = chunk.getCode();
+                            constants = chunk.getConstants();
+                            cells = chunk.getGlobals();
+                            base = frame.base;
+                            ip = frame.ip;
+                        }
+                        break;
+                    }
+                    case OpCode.TAIL_CALL: {
+                        var argCount = code[ip++] & 0xff;
+                        frame.ip = ip;
+                        var callee = stack[sp - 1 - argCount];
+                        if (tailCall(frame, callee, argCount) || callValue(callee, argCount)) {
+                            frame = frames[frameCount - 1];
+                            chunk = frame.closure.getFunction().getChunk();
+                            code = chunk.getCode();
+                            constants = chunk.getConstants();
+                            cells = chunk.getGlobals();
+                            base = frame.base;
+                            ip = frame.ip;
+                        }
+                        break;
+                    }
+                    case OpCode.CLOSURE: {
+                        var function = (VmFunction) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        var closure = new Closure(function);
+                        var upvalues = closure.getUpvalues();
+                        for (int i = 0; i < upvalues.length; i++) {
+                            var isLocal = code[ip++] != 0;
+                            var index = code[ip++] & 0xff;
+                            upvalues[i] = isLocal
+                                    ? captureUpvalue(frame.base + index)
+                                    : frame.closure.getUpvalues()[index];
+                        }
+                        stack[sp++] = closure;
+                        break;
+                    }
+                    case OpCode.CLOSE_UPVALUE:
+                        closeUpvalues(sp - 1);
+                        sp--;
+                        break;
+                    case OpCode.RETURN: {
+                        var result = stack[--sp];
+                        closeUpvalues(frame.base);
+                        frameCount--;
+                        if (frameCount == 0) {
+                            sp = 0;
+                            return InterpretResult.OK;
+                        }
+
+                        sp = frame.base;
+                        stack[sp++] = result;
+                        frame = frames[frameCount - 1];
+                        chunk = frame.closure.getFunction().getChunk();
+                        code = chunk.getCode();
+                        constants = chunk.getConstants();
+                        cells = chunk.getGlobals();
+                        base = frame.base;
+                        ip = frame.ip;
+                        break;
+                    }
+                    case OpCode.CLASS: {
+                        var name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        var params = (String[]) constants[((code[ip + 2] & 0xff) << 8) | (code[ip + 3] & 0xff)];
+                        ip += 4;
+                        stack[sp++] = new VmClass(name, params);
+                        break;
+                    }
+                    case OpCode.METHOD: {
+                        var name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        var method = (Closure) stack[--sp];
+                        ((VmClass) stack[sp - 1]).getMethods().put(name, method);
+                        break;
+                    }
+                    case OpCode.INITIALIZER: {
+                        var initializer = (Closure) stack[--sp];
+                        ((VmClass) stack[sp - 1]).setInitializer(initializer);
+                        break;
+                    }
+                    case OpCode.COMPLETE:
+                        frame.completion = stack[--sp];
+                        break;
+                    case OpCode.COMPLETE_KEEP:
+                        frame.completion = stack[sp - 1];
+                        break;
+                    case OpCode.COMPLETE_NIL:
+                        frame.completion = null;
+                        break;
+                    case OpCode.COMPLETION:
+                        stack[sp++] = frame.completion;
+                        break;
+                    default:
+                        throw new IllegalStateException("unknown opcode: " + code[ip - 1]);
+                }
+            }
+        } catch (VmError error) {
+            frame.ip = ip;
+            runtimeError(error.getMessage());
+            return InterpretResult.RUNTIME_ERROR;
+        }
+    }
+
+    /** @return the global named by a constant, creating it undeclared if no code has used the name yet */
+    private Global global(Global[] cells, Object[] constants, int index) {
+        var global = cells[index];
+        if (global == null) {
+            global = globals.computeIfAbsent((String) constants[index], name -> new Global(UNDECLARED));
+            cells[index] = global;
+        }
+        return global;
+    }
+
+    /** @return true if a new frame was pushed */
+    private boolean callValue(Object callee, int argCount) {
+        if (callee instanceof Closure) {
+            call((Closure) callee, argCount);
+            return true;
+        }
+        if (callee instanceof BoundMethod) {
+            var bound = (BoundMethod) callee;
+            stack[sp - 1 - argCount] = bound.getReceiver();
+            call(bound.getMethod(), argCount);
+            return true;
+        }
+        if (callee instanceof VmClass) {
+            var vmClass = (VmClass) callee;
+            var params = vmClass.getParams();
+            checkArity(params.length, argCount);
+            var instance = new VmInstance(vmClass);
+            var base = sp - 1 - argCount;
+            for (int i = 0; i < params.length; i++) {
+                instance.getFields().put(params[i], stack[base + 1 + i]);
+            }
+            stack[base] = instance;
+            sp = base + 1;
+            if (vmClass.getInitializer() != null) {
+                call(vmClass.getInitializer(), 0);
+                return true;
+            }
+            return false;
+        }
+        if (callee instanceof NativeFunction) {
+            var function = (NativeFunction) callee;
+            checkArity(function.getArity(), argCount);
+            var args = new Object[argCount];
+            System.arraycopy(stack, sp - argCount, args, 0, argCount);
+            var result = function.getBody().apply(args);
+            sp -= argCount + 1;
+            stack[sp++] = result;
+            return false;
+        }
+        throw new VmError("Not callable.");
+    }
+
+    /** Runs a closure or bound method in the caller's frame; false for other callees, which need a normal call. */
+    private boolean tailCall(CallFrame frame, Object callee, int argCount) {
+        Closure closure;
+        if (callee instanceof Closure) {
+            closure = (Closure) callee;
+        } else if (callee instanceof BoundMethod) {
+            var bound = (BoundMethod) callee;
+            stack[sp - 1 - argCount] = bound.getReceiver();
+            closure = bound.getMethod();
+        } else {
+            return false;
+        }
+        checkArity(closure.getFunction().getArity(), argCount);
+
+        closeUpvalues(frame.base);
+        System.arraycopy(stack, sp - 1 - argCount, stack, frame.base, argCount + 1);
+        sp = frame.base + argCount + 1;
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.completion = null;
+        return true;
+    }
+
+    private void call(Closure closure, int argCount) {
+        checkArity(closure.getFunction().getArity(), argCount);
+        if (frameCount == FRAMES_MAX) {
+            throw new VmError("Stack overflow.");
+        }
+
+        var frame = frames[frameCount++];
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = sp - argCount - 1;
+        frame.completion = null;
+    }
+
+    private static void checkArity(int arity, int argCount) {
+        if (argCount != arity) {
+            throw new VmError("Expected " + arity + " arguments but got " + argCount + ".");
+        }
+    }
+
+    private static Object getProperty(Object object, String name) {
+        if (!(object instanceof VmInstance)) {
+            throw new VmError("Only instances have properties.");
+        }
+
+        var instance = (VmInstance) object;
+        var fields = instance.getFields();
+        if (fields.containsKey(name)) {
+            return fields.get(name);
+        }
+
+        var method = instance.getVmClass().getMethods().get(name);
+        if (method != null) {
+            return new BoundMethod(instance, method);
+        }
+
+        throw new VmError("Undefined property '" + name + "'.");
+    }
+
+    private Upvalue captureUpvalue(int slot) {
+        Upvalue previous = null;
+        var upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+
+        if (upvalue != null && upvalue.slot == slot) {
+            return upvalue;
+        }
+
+        var created = new Upvalue(slot);
+        created.next = upvalue;
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.slot >= last) {
+            openUpvalues.close(stack);
+            openUpvalues = openUpvalues.next;
+        }
+    }
+
+    private void push(Object value) {
+        stack[sp++] = value;
+    }
+
+    private void runtimeError(String message) {
+        var frame = frames[frameCount - 1];
+        var line = frame.closure.getFunction().getChunk().getLines()[frame.ip - 1];
+        System.err.println(message + "\n[line " + line + "]");
+
+        sp = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+
+    private static void checkNumberOperand(Object operand) {
+        if (!(operand instanceof Double)) {
+            var operandClass = operand != null ? operand.getClass() : null;
+            throw new VmError("Operands must be numbers, got " + operandClass);
+        }
+    }
+
+    private static void checkNumberOperands(Object left, Object right) {
+        checkNumberOperand(left);
+        checkNumberOperand(right);
+    }
+
+    private static boolean isTruthy(Object object) {
+        if (object == null)
+            return false;
+        if (object instanceof Boolean)
+            return (boolean) object;
+        return true;
+    }
+
+    private static boolean isEqual(Object a, Object b) {
+        if (a == null && b == null)
+            return true;
+        if (a == null)
+            return false;
+        return a.equals(b);
+    }
+
+    private static String stringify(Object obj) {
+        if (obj == null) {
+            return "nil";
+        }
+
+        var text = obj.toString();
+        if (obj instanceof Double && text.endsWith(".0")) {
+            text = text.substring(0, text.length() - 2);
+        }
+
+        return text;
+    }
+
+    private static class VmError extends RuntimeException {
+        VmError(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
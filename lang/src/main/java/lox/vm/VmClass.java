@@ -0,0 +1,24 @@
+package lox.vm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@RequiredArgsConstructor
+class VmClass {
+    private final String name;
+    private final String[] params;
+    private final Map<String, Closure> methods = new HashMap<>();
+
+    @Setter
+    private Closure initializer;
+
+    @Override
+    public String toString() {
+        return "class " + name;
+    }
+}
@@ -0,0 +1,22 @@
+package lox.vm;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+
+/** A compiled function: its bytecode plus the metadata needed to call it. */
+@Getter
+@RequiredArgsConstructor
+class VmFunction {
+    private final String name;
+    private final int arity;
+    private final Chunk chunk = new Chunk();
+
+    @Setter
+    private int upvalueCount = 0;
+
+    @Override
+    public String toString() {
+        return "<fn " + name + "/" + arity + ">";
+    }
+}
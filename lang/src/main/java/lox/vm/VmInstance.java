@@ -0,0 +1,19 @@
+package lox.vm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+class VmInstance {
+    private final VmClass vmClass;
+    private final Map<String, Object> fields = new HashMap<>();
+
+    @Override
+    public String toString() {
+        return "instance " + vmClass.getName();
+    }
+}
@@ -18,30 +18,30 @@ public class GenerateAst {
         }
         var outputDir = args[0];
         defineAst(outputDir, "Expr", Arrays.asList(
-            "Assign     : Token name, Expr value",
-            "Binary     : Expr left, Token operator, Expr right",
+            "Assign     : Token name, Expr value | int depth, int slot",
+            "Binary     : Expr left, Token operator, Expr right | BinaryNode specialization",
             "Call       : Expr callee, Token paren, List<Expr> arguments",
-            "Get        : Expr object, Token name",
+            "Get        : Expr object, Token name | PropertyCache cache",
             "Grouping   : Expr expression",
-            "Lambda     : List<Token> params, List<Stmt> body",
+            "Lambda     : Token keyword, List<Token> params, List<Stmt> body | int frameSize",
             "Literal    : Object value",
             "Logical    : Expr left, Token operator, Expr right",
-            "Set        : Expr object, Token name, Expr value",
-            "This       : Token keyword",
+            "Set        : Expr object, Token name, Expr value | PropertyCache cache",
+            "This       : Token keyword | int depth, int slot",
             "Ternary    : Expr left, Token leftOp, Expr middle, Token rightOp, Expr right",
             "Unary      : Token operator, Expr right",
-            "Variable   : Token name"
+            "Variable   : Token name | int depth, int slot"
         ));
         defineAst(outputDir, "Stmt", Arrays.asList(
-            "Block      : List<Stmt> statements",
-            "Class      : Token name, List<Token> params, List<Stmt> init, List<Stmt.Function> methods",
+            "Block      : List<Stmt> statements | int frameSize",
+            "Class      : Token name, List<Token> params, List<Stmt> init, List<Stmt.Function> methods | int slot, int frameSize",
             "Expression : Expr expression",
-            "Function   : Token name, List<Token> params, List<Stmt> body",
-            "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
-            "Print      : Expr expression",
-            "Return     : Token keyword, Expr value",
-            "Var        : Token name, Expr initializer",
-            "While      : Expr condition, Stmt body"
+            "Function   : Token name, List<Token> params, List<Stmt> body | int slot, int frameSize, int calls, CompiledFunction compiled, Memo memo",
+            "If         : Token keyword, Expr condition, Stmt thenBranch, Stmt elseBranch",
+            "Print      : Token keyword, Expr expression",
+            "Return     : Token keyword, Expr value | boolean tailCall",
+            "Var        : Token name, Expr initializer | int slot",
+            "While      : Token keyword, Expr condition, Stmt body"
         ));
     }
 
@@ -49,12 +49,24 @@ public class GenerateAst {
         var entries = lines.stream().map(line -> {
             var sTokens = line.split(":", 2);
             var cName = sTokens[0].trim();
-            var fields = sTokens[1].trim().split(",");
+            var fields = sTokens[1].split("\\|", 2)[0].trim().split(",");
             return Map.entry(cName, parseType(fields));
         });
         return tbl(entries::iterator);
     }
 
+    // fields after a '|' are not constructor parameters; they are filled in later, e.g. by the resolver
+    private static Map<String, Map<String, String>> parseMutableDef(List<String> lines) {
+        var entries = lines.stream().map(line -> {
+            var sTokens = line.split(":", 2);
+            var cName = sTokens[0].trim();
+            var parts = sTokens[1].split("\\|", 2);
+            var fields = parts.length > 1 ? parseType(parts[1].trim().split(",")) : Map.<String, String>of();
+            return Map.entry(cName, fields);
+        });
+        return tbl(entries::iterator);
+    }
+
     private static Map<String, String> parseType(String... fields) {
         var entries = Stream.of(fields).map(field -> {
             var toks = field.trim().split(" ");
@@ -75,13 +87,14 @@ public class GenerateAst {
 
     private static void defineAst(String outputDir, String baseName, List<String> typesDef) throws IOException {
         var types = parseAstDef(typesDef);
+        var mutableTypes = parseMutableDef(typesDef);
         var path = outputDir + "/lox/lang/" + baseName + ".java";
         try (var writer = new PrintWriter(path, StandardCharsets.UTF_8)) {
             writer.println("package lox.lang;");
             writer.println();
             writer.println("import java.util.List;");
             writer.println();
-            writer.println("abstract class " + baseName + " {");
+            writer.println("public abstract class " + baseName + " {");
 
             defineVisitor(writer, baseName, types);
 
@@ -90,19 +103,19 @@ public class GenerateAst {
                 writer.println();
                 var className = type.getKey().trim();
                 var fields = type.getValue();
-                defineType(writer, baseName, className, fields);
+                defineType(writer, baseName, className, fields, mutableTypes.get(className));
             }
 
             // base accept() method
             writer.println();
-            writer.println("  abstract <R> R accept(Visitor<R> visitor);");
+            writer.println("  public abstract <R> R accept(Visitor<R> visitor);");
 
             writer.println("}");
         }
     }
 
     private static void defineVisitor(PrintWriter writer, String baseName, Map<String, Map<String, String>> types) {
-        writer.println("  interface Visitor<R> {");
+        writer.println("  public interface Visitor<R> {");
 
         for (var type : types.entrySet()) {
             var typeName = type.getKey().trim();
@@ -113,8 +126,9 @@ public class GenerateAst {
         writer.println("  }");
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, Map<String, String> fields) {
-        writer.println("  static class " + className + " extends " + baseName + " {");
+    private static void defineType(PrintWriter writer, String baseName, String className, Map<String, String> fields,
+            Map<String, String> mutableFields) {
+        writer.println("  public static class " + className + " extends " + baseName + " {");
 
         // constructor
         var fieldList = fields.entrySet()
@@ -133,7 +147,7 @@ public class GenerateAst {
 
         // visitor pattern
         writer.println();
-        writer.println("    <R> R accept(Visitor<R> visitor) {");
+        writer.println("    public <R> R accept(Visitor<R> visitor) {");
         writer.println("      return visitor.visit" + className + baseName + "(this);");
         writer.println("    }");
 
@@ -147,6 +161,17 @@ public class GenerateAst {
             writer.println("    public " + type + " get" + capitalizedId + "() { return " + id + "; }");
         }
 
+        // mutable fields
+        for (var field : mutableFields.entrySet()) {
+            var type = field.getValue();
+            var id = field.getKey();
+            var capitalizedId = id.substring(0, 1).toUpperCase() + id.substring(1);
+            writer.println();
+            writer.println("    private " + type + " " + id + ";");
+            writer.println("    public " + type + " get" + capitalizedId + "() { return " + id + "; }");
+            writer.println("    public void set" + capitalizedId + "(" + type + " " + id + ") { this." + id + " = " + id + "; }");
+        }
+
         // toString
         writer.println();
         writer.println("    public String toString() {");